@@ -1,10 +1,10 @@
 package icu.nyat.kusunoki.modpackupdater.ui;
 
 import icu.nyat.kusunoki.modpackupdater.updater.Config;
+import icu.nyat.kusunoki.modpackupdater.updater.UpdatePlan;
 import net.minecraft.client.Minecraft;
 
 import java.nio.file.Path;
-import java.util.List;
 
 /**
  * Client-side entry point to show the update prompt screen from common updater code.
@@ -12,7 +12,7 @@ import java.util.List;
 public final class UpdatePrompt {
     private UpdatePrompt() {}
 
-    public static void show(Path gameDir, Config cfg, List<String> adds, List<String> updates, List<String> deletes) {
+    public static void show(Path gameDir, Config cfg, UpdatePlan plan) {
         try {
             Minecraft mc = Minecraft.getInstance();
             // Delay a few client ticks so the background (world/panorama) has rendered at least once
@@ -26,7 +26,7 @@ public final class UpdatePrompt {
                         return;
                     }
                     // Open the prompt after delay
-                    mc.setScreen(new UpdatePromptScreen(gameDir, cfg, adds, updates, deletes));
+                    mc.setScreen(new UpdatePromptScreen(gameDir, cfg, plan));
                 }
             });
         } catch (Throwable ignored) {
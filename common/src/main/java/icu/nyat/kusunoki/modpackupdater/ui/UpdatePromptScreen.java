@@ -1,6 +1,7 @@
 package icu.nyat.kusunoki.modpackupdater.ui;
 
 import icu.nyat.kusunoki.modpackupdater.updater.Config;
+import icu.nyat.kusunoki.modpackupdater.updater.UpdatePlan;
 import icu.nyat.kusunoki.modpackupdater.updater.UpdateRunner;
 import icu.nyat.kusunoki.modpackupdater.updater.UpdateProgressListener;
 import net.minecraft.client.Minecraft;
@@ -18,6 +19,7 @@ import java.util.Objects;
 public class UpdatePromptScreen extends Screen {
     private final Path gameDirectory;
     private final Config config;
+    private final UpdatePlan plan; // from the update check; executed without scanning again
 
     private final List<Component> addItems;
     private final List<Component> updateItems;
@@ -36,13 +38,14 @@ public class UpdatePromptScreen extends Screen {
 
     private volatile String statusLine = ""; // current update status text
 
-    public UpdatePromptScreen(Path gameDir, Config cfg, List<String> adds, List<String> updates, List<String> deletes) {
+    public UpdatePromptScreen(Path gameDir, Config cfg, UpdatePlan plan) {
         super(Component.literal("Modpack Update Available"));
         this.gameDirectory = Objects.requireNonNull(gameDir);
         this.config = Objects.requireNonNull(cfg);
-        this.addItems = toComponents(adds);
-        this.updateItems = toComponents(updates);
-        this.deleteItems = toComponents(deletes);
+        this.plan = Objects.requireNonNull(plan);
+        this.addItems = toComponents(plan.getAddList());
+        this.updateItems = toComponents(plan.getUpdateList());
+        this.deleteItems = toComponents(plan.getDeleteList());
     }
 
     private static List<Component> toComponents(List<String> src) {
@@ -82,7 +85,7 @@ public class UpdatePromptScreen extends Screen {
                     // Ensure changes applied on render thread
                     Minecraft mc = Minecraft.getInstance();
                     if (mc != null) mc.execute(() -> statusLine = msg);
-                }).execute();
+                }).execute(plan);
             } catch (Throwable t1) {
                 success = false;
             }
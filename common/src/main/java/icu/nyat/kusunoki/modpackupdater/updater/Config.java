@@ -4,6 +4,7 @@ import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.annotations.SerializedName;
 import icu.nyat.kusunoki.modpackupdater.Constants;
+import icu.nyat.kusunoki.modpackupdater.updater.util.PathFilter;
 
 import java.io.IOException;
 import java.io.Reader;
@@ -24,6 +25,11 @@ public class Config {
     @SerializedName("includePaths")
     private String[] includePaths = new String[]{"mods", "config", "resourcepacks", "options.txt"};
 
+    // Paths or globs never synced even if inside an include path (e.g. "*.bak", "config/local"); "!pattern" entries
+    // in includePaths work the same
+    @SerializedName("excludePaths")
+    private String[] excludePaths = new String[0];
+
     @SerializedName("timeoutSeconds")
     private int timeoutSeconds = 30;
 
@@ -40,6 +46,20 @@ public class Config {
     @SerializedName("deleteExtraConfigs")
     private boolean deleteExtraConfigs = false;
 
+    // Worker threads for scanning and hashing local files (0 = one per CPU core)
+    @SerializedName("scanThreads")
+    private int scanThreads = 0;
+
+    // Watch include paths while the game runs so the next launch only lists folders that changed
+    @SerializedName("watchLocalChanges")
+    private boolean watchLocalChanges = true;
+
+    // Let the server diff a listing of local files instead of downloading its manifest (used if the server offers it)
+    @SerializedName("serverDiff")
+    private boolean serverDiff = false;
+
+    private transient PathFilter pathFilter; // compiled from includePaths/excludePaths on first use
+
     public static Path configFile(Path gameDir) {
         return gameDir.resolve("config").resolve("modpackupdater.json");
     }
@@ -79,13 +99,22 @@ public class Config {
     public String getBaseUrl() { return baseUrl; }
     public String getPackId() { return packId; }
     public String[] getIncludePaths() { return includePaths; }
+    public String[] getExcludePaths() { return excludePaths != null ? excludePaths : new String[0]; }
     public Duration getTimeout() { return Duration.ofSeconds(Math.max(5, timeoutSeconds)); }
 
     public void setBaseUrl(String baseUrl) { this.baseUrl = baseUrl; }
     public void setPackId(String packId) { this.packId = packId; }
-    public void setIncludePaths(String[] includePaths) { this.includePaths = includePaths; }
+    public void setIncludePaths(String[] includePaths) { this.includePaths = includePaths; this.pathFilter = null; }
+    public void setExcludePaths(String[] excludePaths) { this.excludePaths = excludePaths; this.pathFilter = null; }
     public void setTimeoutSeconds(int timeoutSeconds) { this.timeoutSeconds = timeoutSeconds; }
 
+    /** Include/exclude rules compiled once; recompiled after either list changes. */
+    public PathFilter getPathFilter() {
+        PathFilter f = pathFilter;
+        if (f == null) pathFilter = f = PathFilter.compile(includePaths, getExcludePaths());
+        return f;
+    }
+
     // New getters/setters
     public boolean isOverwriteModifiedConfigs() { return overwriteModifiedConfigs; }
     public void setOverwriteModifiedConfigs(boolean overwriteModifiedConfigs) { this.overwriteModifiedConfigs = overwriteModifiedConfigs; }
@@ -96,6 +125,15 @@ public class Config {
     public boolean isDeleteExtraConfigs() { return deleteExtraConfigs; }
     public void setDeleteExtraConfigs(boolean deleteExtraConfigs) { this.deleteExtraConfigs = deleteExtraConfigs; }
 
+    public int getScanThreads() { return Math.max(0, scanThreads); }
+    public void setScanThreads(int scanThreads) { this.scanThreads = scanThreads; }
+
+    public boolean isWatchLocalChanges() { return watchLocalChanges; }
+    public void setWatchLocalChanges(boolean watchLocalChanges) { this.watchLocalChanges = watchLocalChanges; }
+
+    public boolean isServerDiff() { return serverDiff; }
+    public void setServerDiff(boolean serverDiff) { this.serverDiff = serverDiff; }
+
     public boolean isExternalApplierEnabled() { return false; } // legacy compatibility always false
     public void setExternalApplier(boolean externalApplier) { /* no-op after revert */ }
 }
@@ -0,0 +1,228 @@
+package icu.nyat.kusunoki.modpackupdater.updater;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import com.google.gson.annotations.SerializedName;
+import icu.nyat.kusunoki.modpackupdater.Constants;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Persistent SHA-256 cache for local files, keyed by relative path and validated against the file's
+ * stat tuple (size, last-modified time, file key). Unchanged files reuse the cached hash instead of being re-read.
+ */
+public class HashCache {
+    private static final Gson GSON = new GsonBuilder().create();
+    // Bump when the entry layout or hashing semantics change; older caches are discarded on load
+    private static final int FORMAT = 2;
+    // Files modified this close to the moment they were hashed may have changed again within the same
+    // timestamp granularity (FAT/exFAT have 2s resolution), so such entries are re-hashed once more.
+    private static final long RACY_WINDOW_MS = 2000L;
+
+    @SerializedName("format")
+    private int format = FORMAT;
+
+    // Changes on every write; lets the change journal tell whether it describes changes relative to this snapshot
+    @SerializedName("generation")
+    private long generation;
+
+    @SerializedName("entries")
+    private ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    // Every included file has an entry; only then can a change journal stand in for listing the include folders
+    @SerializedName("complete")
+    private boolean complete;
+
+    private transient final Set<String> seen = ConcurrentHashMap.newKeySet();
+    private transient final ConcurrentHashMap<String, Entry> written = new ConcurrentHashMap<>(); // see storeWritten
+    private transient final AtomicLong hits = new AtomicLong();
+    private transient final AtomicLong misses = new AtomicLong();
+    private transient volatile boolean dirty = false;
+    private transient volatile boolean scanned = false; // set once a scan has listed every included file
+    private transient volatile Set<String> partialRoots; // set when only these roots were stat'ed
+    private transient volatile boolean partialVouched; // a change journal vouches for the entries outside them
+
+    public static class Entry {
+        @SerializedName("size") public long size;
+        @SerializedName("mtime") public long mtime;       // last-modified, epoch millis
+        @SerializedName("key") public String fileKey;      // inode/file key if the platform provides one
+        @SerializedName("sha256") public String sha256;       // null when the file was only stat'ed
+        @SerializedName("verifiedAt") public long verifiedAt; // when the hash was computed, epoch millis
+
+        public Entry() {}
+        public Entry(long size, long mtime, String fileKey, String sha256, long verifiedAt) {
+            this.size = size; this.mtime = mtime; this.fileKey = fileKey; this.sha256 = sha256; this.verifiedAt = verifiedAt;
+        }
+    }
+
+    public static Path file(Path gameDir) {
+        return gameDir.resolve("modpackupdater").resolve("hashcache.json");
+    }
+
+    public static HashCache load(Path gameDir) {
+        Path f = file(gameDir);
+        try {
+            if (Files.notExists(f)) return new HashCache();
+            try (Reader r = Files.newBufferedReader(f)) {
+                HashCache c = GSON.fromJson(r, HashCache.class);
+                if (c == null || c.format != FORMAT || c.entries == null) {
+                    Constants.LOG.info("Discarding incompatible hash cache at {}", f);
+                    return new HashCache();
+                }
+                return c;
+            }
+        } catch (IOException | JsonParseException e) {
+            Constants.LOG.warn("Failed to read hash cache, starting empty: {}", e.toString());
+            return new HashCache();
+        }
+    }
+
+    /**
+     * Writes the cache atomically. After a scan, entries for files that were not seen since it was loaded are dropped,
+     * so the cache lists every included file and doubles as the snapshot the change watcher is relative to.
+     * Runs that only record a few files (e.g. applying a stored plan) keep the rest of the entries; after a partial
+     * stat no journal vouched for, the cache is no longer {@linkplain #isComplete() complete}.
+     */
+    public void save(Path gameDir) {
+        settleWritten(gameDir);
+        Set<String> roots = partialRoots;
+        if (scanned || roots != null) {
+            int before = entries.size();
+            if (roots == null) entries.keySet().retainAll(seen); // a full scan
+            else entries.keySet().removeIf(p -> !seen.contains(p) && LocalChangeWatcher.Journal.isUnderAny(p, roots));
+            if (entries.size() != before) dirty = true;
+            boolean nowComplete = scanned || (complete && partialVouched);
+            if (nowComplete != complete) { complete = nowComplete; dirty = true; }
+        }
+        if (!dirty) {
+            LocalChangeWatcher.rebase(generation);
+            return;
+        }
+        Path f = file(gameDir);
+        try {
+            Files.createDirectories(f.getParent());
+            long next;
+            do { next = ThreadLocalRandom.current().nextLong(); } while (next == 0L || next == generation);
+            generation = next;
+            Path tmp = f.resolveSibling(f.getFileName() + ".tmp");
+            try (Writer w = Files.newBufferedWriter(tmp)) {
+                GSON.toJson(this, w);
+            }
+            Files.move(tmp, f, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            dirty = false;
+            LocalChangeWatcher.rebase(generation);
+        } catch (IOException e) {
+            Constants.LOG.warn("Failed to save hash cache: {}", e.toString());
+        }
+    }
+
+    /**
+     * Returns the cached SHA-256 for the file if its stat tuple is unchanged and the entry is not racy, else null.
+     * Misses still record the stat tuple so the cache keeps a complete listing of the last scan.
+     */
+    public String lookup(String relPath, BasicFileAttributes attrs) {
+        seen.add(relPath);
+        Entry e = entries.get(relPath);
+        long mtime = attrs.lastModifiedTime().toMillis();
+        String key = fileKey(attrs);
+        boolean statMatches = e != null && e.size == attrs.size() && e.mtime == mtime && Objects.equals(e.fileKey, key);
+        if (statMatches && e.sha256 != null && e.verifiedAt - e.mtime > RACY_WINDOW_MS) {
+            hits.incrementAndGet();
+            return e.sha256;
+        }
+        if (!statMatches) {
+            entries.put(relPath, new Entry(attrs.size(), mtime, key, null, 0L));
+            dirty = true;
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /** Relative paths of every file recorded by the last scan. */
+    public Set<String> paths() { return Collections.unmodifiableSet(entries.keySet()); }
+
+    public long getGeneration() { return generation; }
+
+    /** True if the last save followed a full scan, or only partial ones a change journal vouched for since. */
+    public boolean isComplete() { return complete; }
+
+    /** Records a freshly computed hash. {@code hashStartedAt} must be taken before the file was read. */
+    public void store(String relPath, BasicFileAttributes attrs, String sha256, long hashStartedAt) {
+        seen.add(relPath);
+        entries.put(relPath, new Entry(attrs.size(), attrs.lastModifiedTime().toMillis(), fileKey(attrs), sha256, hashStartedAt));
+        dirty = true;
+    }
+
+    /**
+     * Records the hash of a file this run has just written and verified; {@code attrs} must be read after the file was
+     * moved into place. The entry is stored on save, and only if the file's stat tuple is still the same. Saving does
+     * not wait for the mtime to leave the racy window: a file written too recently is stored as racy and hashed once
+     * more by the next run.
+     */
+    public void storeWritten(String relPath, BasicFileAttributes attrs, String sha256) {
+        seen.add(relPath);
+        written.put(relPath, new Entry(attrs.size(), attrs.lastModifiedTime().toMillis(), fileKey(attrs), sha256, 0L));
+    }
+
+    private void settleWritten(Path gameDir) {
+        if (written.isEmpty()) return;
+        long verifiedAt = System.currentTimeMillis();
+        for (java.util.Map.Entry<String, Entry> w : written.entrySet()) {
+            Entry e = w.getValue();
+            try {
+                BasicFileAttributes now = Files.readAttributes(gameDir.resolve(w.getKey()), BasicFileAttributes.class);
+                if (now.size() == e.size && now.lastModifiedTime().toMillis() == e.mtime && Objects.equals(fileKey(now), e.fileKey)) {
+                    e.verifiedAt = verifiedAt; // racy (see lookup) unless the file was written early enough in the run
+                    entries.put(w.getKey(), e);
+                } else {
+                    entries.remove(w.getKey());
+                }
+            } catch (IOException ex) {
+                entries.remove(w.getKey());
+            }
+        }
+        written.clear();
+        dirty = true;
+    }
+
+    /** Marks the entries seen so far as a complete listing of the included files (see {@link #save(Path)}). */
+    public void markScanned() {
+        scanned = true;
+    }
+
+    /**
+     * For runs that stat only {@code roots} (relative files or folders): on save, only entries below them that were
+     * not seen are dropped and the rest are kept. If a change journal {@code vouched} that those are current, the
+     * cache stays as complete as it was; otherwise files outside the roots may be missing and it is marked partial.
+     */
+    public void markPartial(java.util.Collection<String> roots, boolean vouched) {
+        partialRoots = new java.util.HashSet<>(roots);
+        partialVouched = vouched;
+    }
+
+    public void invalidate(String relPath) {
+        written.remove(relPath);
+        if (entries.remove(relPath) != null) dirty = true;
+    }
+
+    public long getHits() { return hits.get(); }
+    public long getMisses() { return misses.get(); }
+
+    private static String fileKey(BasicFileAttributes attrs) {
+        Object k = attrs.fileKey();
+        return k != null ? k.toString() : null;
+    }
+}
@@ -4,20 +4,49 @@ import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.annotations.SerializedName;
 import icu.nyat.kusunoki.modpackupdater.Constants;
+import icu.nyat.kusunoki.modpackupdater.updater.util.HashEngine;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Reader;
-import java.io.Writer;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
 
+/**
+ * Files installed by the last apply with their server SHA-256, CRC32C fingerprints and Merkle roots. Together with the
+ * filter signature this is the last applied manifest, which planning compares a new manifest against.
+ *
+ * <p>Stored as {@code installed.bin}: a length-prefixed binary snapshot (SHA-256 as 32 raw bytes) plus an append-only
+ * {@code installed.journal} of fingerprints learned since. Recording fingerprints only appends to the journal; the
+ * snapshot is rewritten when the file list changes or the journal grows past a quarter of it. Both are read whole on
+ * load rather than mapped: records are length-prefixed without an offset table, and planning needs every entry anyway.
+ *
+ * <p>A legacy {@code installed.json} is converted on load. For one release it is also kept and rewritten with each
+ * snapshot so that an older build still finds a current index; one newer than the snapshot was written by such a build
+ * and is converted again.
+ */
 public class InstalledIndex {
     private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
+    private static final int MAGIC = 0x4D505549; // "MPUI"
+    private static final int JOURNAL_MAGIC = 0x4D50554A; // "MPUJ"
+    // Bump when the binary layout changes; snapshots older than MIN_FORMAT are discarded like unreadable ones
+    private static final int FORMAT = 2, MIN_FORMAT = 1; // 2: filter signature after the version
+    private static final int COMPACT_MIN_RECORDS = 256;
+    private static final boolean IS_WINDOWS = System.getProperty("os.name", "").toLowerCase(Locale.ROOT).contains("win");
+    private static final byte HAS_SHA_BYTES = 1, HAS_SHA_TEXT = 2, HAS_FINGERPRINT = 4;
 
     @SerializedName("packId")
     public String packId;
@@ -25,6 +54,10 @@ public class InstalledIndex {
     @SerializedName("version")
     public String version; // informational
 
+    // PathFilter signature the files were selected with; the file list is only complete for that filter
+    @SerializedName("filter")
+    public String filter;
+
     @SerializedName("files")
     public List<String> files = new ArrayList<>(); // relative paths
 
@@ -32,42 +65,283 @@ public class InstalledIndex {
     @SerializedName("shas")
     public java.util.Map<String, String> shas = new java.util.HashMap<>();
 
+    // Fast fingerprint ("<crc32c hex>:<size>") of the content recorded in shas, keyed like shas. Lets a run confirm a
+    // managed file is untouched with a CRC32C pass instead of a full SHA-256; only present where we know the content.
+    @SerializedName("fingerprints")
+    public java.util.Map<String, String> fingerprints = new java.util.HashMap<>();
+
+    // Merkle root per top-level include entry over the server content recorded in shas (see MerkleTree)
+    @SerializedName("merkleRoots")
+    public java.util.Map<String, String> merkleRoots = new java.util.HashMap<>();
+
+    private transient Set<String> fileSet; // normalized files, built on first lookup
+    private transient Set<String> folderSet; // every parent folder of those files, built with fileSet
+    private transient long generation; // ties the journal to the snapshot it extends
+    private transient boolean rewrite = true; // snapshot must be rewritten (file list changed or nothing on disk)
+    private transient int journalRecords;
+    private transient final List<String[]> pendingFingerprints = new ArrayList<>(); // {path, sha, fingerprint}
+
     public static Path file(Path gameDir) {
+        return gameDir.resolve("modpackupdater").resolve("installed.bin");
+    }
+
+    public static Path journalFile(Path gameDir) {
+        return gameDir.resolve("modpackupdater").resolve("installed.journal");
+    }
+
+    /** Pre-binary JSON index; converted on load. */
+    public static Path legacyFile(Path gameDir) {
         return gameDir.resolve("modpackupdater").resolve("installed.json");
     }
 
     public static InstalledIndex load(Path gameDir) {
         Path f = file(gameDir);
         try {
-            if (Files.notExists(f)) return new InstalledIndex();
-            try (Reader r = Files.newBufferedReader(f)) {
-                InstalledIndex idx = GSON.fromJson(r, InstalledIndex.class);
-                return idx != null ? idx : new InstalledIndex();
+            if (Files.exists(f) && !legacyIsNewer(gameDir)) {
+                InstalledIndex idx = readSnapshot(ByteBuffer.wrap(Files.readAllBytes(f)));
+                if (idx != null) {
+                    idx.replayJournal(gameDir);
+                    return idx;
+                }
+                Constants.LOG.info("Discarding incompatible installed index at {}", f);
             }
-        } catch (IOException e) {
+        } catch (IOException | RuntimeException e) {
+            Constants.LOG.warn("Failed to read installed index: {}", e.toString());
+        }
+        return migrateLegacy(gameDir);
+    }
+
+    private static InstalledIndex migrateLegacy(Path gameDir) {
+        Path legacy = legacyFile(gameDir);
+        if (Files.notExists(legacy)) return new InstalledIndex();
+        InstalledIndex idx;
+        try (Reader r = Files.newBufferedReader(legacy)) {
+            idx = GSON.fromJson(r, InstalledIndex.class);
+        } catch (IOException | RuntimeException e) {
             Constants.LOG.warn("Failed to read installed index: {}", e.toString());
             return new InstalledIndex();
         }
+        if (idx == null) return new InstalledIndex();
+        if (idx.files == null) idx.files = new ArrayList<>();
+        idx.save(gameDir);
+        if (!idx.rewrite) Constants.LOG.info("Converted installed index to {}", file(gameDir).getFileName());
+        return idx;
+    }
+
+    private static boolean legacyIsNewer(Path gameDir) throws IOException {
+        Path legacy = legacyFile(gameDir);
+        return Files.exists(legacy) && Files.getLastModifiedTime(legacy).compareTo(Files.getLastModifiedTime(file(gameDir))) > 0;
     }
 
+    /** Appends fingerprints recorded since the last save to the journal, or rewrites the snapshot when needed. */
     public void save(Path gameDir) {
+        try {
+            Files.createDirectories(file(gameDir).getParent());
+            if (rewrite || journalRecords + pendingFingerprints.size() > Math.max(COMPACT_MIN_RECORDS, files.size() / 4)) {
+                writeSnapshot(gameDir);
+            } else if (!pendingFingerprints.isEmpty()) {
+                appendJournal(gameDir);
+            }
+        } catch (IOException e) {
+            Constants.LOG.warn("Failed to save installed index: {}", e.toString());
+        }
+    }
+
+    private void writeSnapshot(Path gameDir) throws IOException {
+        generation = ThreadLocalRandom.current().nextLong();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + files.size() * 96);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT);
+        out.writeLong(generation);
+        writeString(out, packId);
+        writeString(out, version);
+        writeString(out, filter);
+        out.writeInt(files.size());
+        for (String n : files) {
+            writeString(out, n);
+            writeShaAndFingerprint(out, shas != null ? shas.get(n) : null, fingerprints != null ? fingerprints.get(n) : null);
+        }
+        java.util.Map<String, String> roots = getMerkleRoots();
+        out.writeInt(roots.size());
+        for (var e : roots.entrySet()) {
+            writeString(out, e.getKey());
+            writeShaAndFingerprint(out, e.getValue(), null);
+        }
+        writeLegacy(gameDir); // first, so the snapshot is never older than the copy it supersedes
         Path f = file(gameDir);
+        Path tmp = f.resolveSibling(f.getFileName() + ".tmp");
+        Files.write(tmp, bytes.toByteArray());
+        Files.move(tmp, f, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.deleteIfExists(journalFile(gameDir));
+        rewrite = false;
+        journalRecords = 0;
+        pendingFingerprints.clear();
+    }
+
+    // TODO: drop together with the legacy fallback in load() one release after the binary index
+    private void writeLegacy(Path gameDir) {
+        Path f = legacyFile(gameDir);
+        Path tmp = f.resolveSibling(f.getFileName() + ".tmp");
         try {
-            Files.createDirectories(f.getParent());
-            try (Writer w = Files.newBufferedWriter(f)) {
+            try (java.io.Writer w = Files.newBufferedWriter(tmp)) {
                 GSON.toJson(this, w);
             }
+            Files.move(tmp, f, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            Constants.LOG.warn("Failed to save legacy installed index: {}", e.toString());
+        }
+    }
+
+    private static InstalledIndex readSnapshot(ByteBuffer in) {
+        if (in.remaining() < 16 || in.getInt() != MAGIC) return null;
+        int format = in.getInt();
+        if (format < MIN_FORMAT || format > FORMAT) return null;
+        InstalledIndex idx = new InstalledIndex();
+        idx.generation = in.getLong();
+        idx.packId = readString(in);
+        idx.version = readString(in);
+        if (format >= 2) idx.filter = readString(in);
+        int n = in.getInt();
+        idx.files = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            String path = readString(in);
+            idx.files.add(path);
+            String[] shaFp = readShaAndFingerprint(in);
+            if (shaFp[0] != null) idx.shas.put(path, shaFp[0]);
+            if (shaFp[1] != null) idx.fingerprints.put(path, shaFp[1]);
+        }
+        int roots = in.getInt();
+        for (int i = 0; i < roots; i++) {
+            String name = readString(in);
+            idx.merkleRoots.put(name, readShaAndFingerprint(in)[0]);
+        }
+        idx.rewrite = format != FORMAT; // an older layout is upgraded on the next save
+        return idx;
+    }
+
+    private void appendJournal(Path gameDir) throws IOException {
+        Path j = journalFile(gameDir);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        if (journalRecords == 0) {
+            out.writeInt(JOURNAL_MAGIC);
+            out.writeLong(generation);
+        }
+        for (String[] rec : pendingFingerprints) {
+            writeString(out, rec[0]);
+            writeString(out, rec[1]);
+            writeString(out, rec[2]);
+        }
+        // A fresh journal replaces any leftover of an older snapshot; later saves append to it
+        try (OutputStream os = journalRecords == 0
+                ? Files.newOutputStream(j, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)
+                : Files.newOutputStream(j, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            os.write(bytes.toByteArray());
+        }
+        journalRecords += pendingFingerprints.size();
+        pendingFingerprints.clear();
+    }
+
+    private void replayJournal(Path gameDir) {
+        Path j = journalFile(gameDir);
+        if (Files.notExists(j)) return;
+        ByteBuffer in;
+        try {
+            in = ByteBuffer.wrap(Files.readAllBytes(j));
         } catch (IOException e) {
-            Constants.LOG.warn("Failed to save installed index: {}", e.toString());
+            Constants.LOG.warn("Failed to read installed index journal: {}", e.toString());
+            return;
+        }
+        if (in.remaining() < 12 || in.getInt() != JOURNAL_MAGIC || in.getLong() != generation) return; // left over from an older snapshot
+        int applied = 0;
+        try {
+            while (in.hasRemaining()) {
+                String path = readString(in), sha = readString(in), fp = readString(in);
+                applyFingerprint(path, sha, fp);
+                applied++;
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException torn) {
+            // A record cut short by a crash: keep what was complete and fold everything into a new snapshot on save
+            rewrite = true;
         }
+        journalRecords = applied;
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) { out.writeInt(-1); return; }
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    private static String readString(ByteBuffer in) {
+        int len = in.getInt();
+        if (len < 0) return null;
+        if (len > in.remaining()) throw new BufferUnderflowException();
+        String s = new String(in.array(), in.arrayOffset() + in.position(), len, StandardCharsets.UTF_8);
+        in.position(in.position() + len);
+        return s;
+    }
+
+    private static void writeShaAndFingerprint(DataOutputStream out, String sha, String fp) throws IOException {
+        byte[] raw = sha != null ? hexToBytes(sha) : null;
+        out.writeByte((raw != null ? HAS_SHA_BYTES : sha != null ? HAS_SHA_TEXT : 0) | (fp != null ? HAS_FINGERPRINT : 0));
+        if (raw != null) out.write(raw);
+        else if (sha != null) writeString(out, sha);
+        if (fp != null) writeString(out, fp);
+    }
+
+    private static String[] readShaAndFingerprint(ByteBuffer in) {
+        byte flags = in.get();
+        String sha = null;
+        if ((flags & HAS_SHA_BYTES) != 0) {
+            byte[] raw = new byte[32];
+            in.get(raw);
+            sha = HashEngine.toHex(raw);
+        } else if ((flags & HAS_SHA_TEXT) != 0) {
+            sha = readString(in);
+        }
+        return new String[]{ sha, (flags & HAS_FINGERPRINT) != 0 ? readString(in) : null };
+    }
+
+    /** 32 raw bytes of a 64-digit hex SHA-256, or null if {@code hex} is anything else (kept as text then). */
+    private static byte[] hexToBytes(String hex) {
+        if (hex.length() != 64) return null;
+        byte[] out = new byte[32];
+        for (int i = 0; i < 32; i++) {
+            int hi = Character.digit(hex.charAt(i * 2), 16), lo = Character.digit(hex.charAt(i * 2 + 1), 16);
+            if (hi < 0 || lo < 0) return null;
+            out[i] = (byte) (hi << 4 | lo);
+        }
+        return out;
     }
 
     public boolean contains(String relPath) {
-        String p = norm(relPath);
-        for (String s : files) {
-            if (norm(s).equals(p)) return true;
+        return fileSet().contains(norm(relPath));
+    }
+
+    /** True if {@code relPath} or any file below it (as a folder) is in the index. */
+    public boolean containsAnyUnder(String relPath) {
+        String n = norm(relPath);
+        return fileSet().contains(n) || folderSet.contains(n);
+    }
+
+    private Set<String> fileSet() {
+        Set<String> set = fileSet;
+        if (set == null) {
+            set = new HashSet<>(files.size() * 2);
+            Set<String> folders = new HashSet<>();
+            for (String s : files) {
+                String n = norm(s);
+                set.add(n);
+                // Ancestors of an already added folder are in the set too
+                for (int i = n.lastIndexOf('/'); i > 0 && folders.add(n.substring(0, i)); i = n.lastIndexOf('/', i - 1)) {}
+            }
+            folderSet = folders;
+            fileSet = set;
         }
-        return false;
+        return set;
     }
 
     public String getSha(String relPath) {
@@ -75,21 +349,58 @@ public class InstalledIndex {
         return shas.get(norm(relPath));
     }
 
+    public String getFingerprint(String relPath) {
+        if (fingerprints == null) return null;
+        return fingerprints.get(norm(relPath));
+    }
+
+    /** Records the fingerprint of a file whose content is known to have SHA-256 {@code sha}; ignored unless that is the recorded SHA. */
+    public void recordFingerprint(String relPath, String sha, String fingerprint) {
+        String n = norm(relPath);
+        if (applyFingerprint(n, sha, fingerprint)) pendingFingerprints.add(new String[]{ n, sha, fingerprint });
+    }
+
+    private boolean applyFingerprint(String n, String sha, String fingerprint) {
+        String known = shas != null ? shas.get(n) : null;
+        if (known == null || sha == null || !known.equalsIgnoreCase(sha) || fingerprint == null) return false;
+        if (fingerprints == null) fingerprints = new java.util.HashMap<>();
+        return !fingerprint.equals(fingerprints.put(n, fingerprint));
+    }
+
+    /** Merkle roots of the content installed by the last apply; empty if unknown. */
+    public java.util.Map<String, String> getMerkleRoots() {
+        return merkleRoots != null ? merkleRoots : java.util.Map.of();
+    }
+
+    public static String fingerprint(String crc32c, long size) { return crc32c + ":" + size; }
+
+    public static String fingerprintCrc(String fingerprint) {
+        int i = fingerprint.indexOf(':');
+        return i > 0 ? fingerprint.substring(0, i) : fingerprint;
+    }
+
+    public static long fingerprintSize(String fingerprint) {
+        int i = fingerprint.indexOf(':');
+        try { return i > 0 ? Long.parseLong(fingerprint.substring(i + 1)) : -1L; } catch (NumberFormatException e) { return -1L; }
+    }
+
     public static String norm(String p) {
-        String n = p.replace('\\', '/');
-        if (System.getProperty("os.name", "").toLowerCase(Locale.ROOT).contains("win")) {
-            n = n.toLowerCase(Locale.ROOT);
-        }
-        return n;
+        String n = p.indexOf('\\') >= 0 ? p.replace('\\', '/') : p;
+        return IS_WINDOWS ? n.toLowerCase(Locale.ROOT) : n;
     }
 
     public void setFromList(String packId, String version, List<String> relPaths) {
+        this.fileSet = null;
+        this.rewrite = true;
         this.packId = packId;
         this.version = version;
+        this.filter = null;
         Set<String> uniq = new HashSet<>();
         this.files.clear();
         if (this.shas == null) this.shas = new java.util.HashMap<>();
         this.shas.clear();
+        if (this.fingerprints != null) this.fingerprints.clear();
+        if (this.merkleRoots != null) this.merkleRoots.clear();
         for (String p : relPaths) {
             if (p == null || p.isBlank()) continue;
             String n = norm(p);
@@ -98,21 +409,38 @@ public class InstalledIndex {
     }
 
     public void setFromManifest(String packId, String version, java.util.List<icu.nyat.kusunoki.modpackupdater.updater.dto.Manifest.FileEntry> serverFiles, String[] includePaths) {
+        setFromManifest(packId, version, serverFiles, icu.nyat.kusunoki.modpackupdater.updater.util.PathFilter.compile(includePaths));
+    }
+
+    public void setFromManifest(String packId, String version, java.util.List<icu.nyat.kusunoki.modpackupdater.updater.dto.Manifest.FileEntry> serverFiles, icu.nyat.kusunoki.modpackupdater.updater.util.PathFilter filter) {
+        this.fileSet = null;
+        this.rewrite = true;
         this.packId = packId;
         this.version = version;
+        this.filter = filter.signature();
         Set<String> uniq = new HashSet<>();
         this.files.clear();
         if (this.shas == null) this.shas = new java.util.HashMap<>();
+        java.util.Map<String, String> oldShas = new java.util.HashMap<>(this.shas);
+        java.util.Map<String, String> oldFingerprints = this.fingerprints != null ? this.fingerprints : new java.util.HashMap<>();
+        this.fingerprints = new java.util.HashMap<>();
         this.shas.clear();
+        this.merkleRoots = new java.util.HashMap<>();
         if (serverFiles == null) return;
         for (var fe : serverFiles) {
             if (fe == null || fe.path == null) continue;
-            if (!icu.nyat.kusunoki.modpackupdater.updater.util.FileUtils.isIncluded(fe.path, includePaths)) continue;
+            if (!filter.matches(fe.path)) continue;
             String n = norm(fe.path);
             if (uniq.add(n)) this.files.add(n);
             if (fe.sha256 != null && !fe.sha256.isBlank()) {
                 this.shas.put(n, fe.sha256);
+                // A fingerprint stays valid while the server content it describes is unchanged
+                String fp = oldFingerprints.get(n);
+                if (fp != null && fe.sha256.equalsIgnoreCase(oldShas.get(n))) this.fingerprints.put(n, fp);
             }
         }
+        java.util.Map<String, String> tree = new java.util.HashMap<>();
+        for (String n : this.files) tree.put(n, this.shas.get(n));
+        this.merkleRoots.putAll(icu.nyat.kusunoki.modpackupdater.updater.util.MerkleTree.build(tree).roots());
     }
 }
@@ -0,0 +1,292 @@
+package icu.nyat.kusunoki.modpackupdater.updater;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import com.google.gson.annotations.SerializedName;
+import icu.nyat.kusunoki.modpackupdater.Constants;
+import icu.nyat.kusunoki.modpackupdater.updater.dto.DiffRequest;
+import icu.nyat.kusunoki.modpackupdater.updater.util.FileUtils;
+import icu.nyat.kusunoki.modpackupdater.updater.util.PathFilter;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Low-priority daemon that watches the configured include paths while the game runs and records which relative
+ * paths changed. At shutdown the dirty set is written to {@code modpackupdater/changes.json}; the next run can then
+ * take the file list from the hash cache snapshot and only list the changed paths instead of every include folder.
+ *
+ * <p>Files of the snapshot are still stat'ed and checked against their cached stat tuple, so in-place edits made while
+ * the game was not running are caught; added, removed or renamed entries show up as directory mtime changes.
+ */
+public final class LocalChangeWatcher implements Runnable {
+    private static final Gson GSON = new GsonBuilder().create();
+    private static final int FORMAT = 1;
+    // Past this many dirty paths a full scan is cheaper than replaying the journal
+    private static final int MAX_DIRTY = 10_000;
+
+    private static volatile LocalChangeWatcher active;
+
+    private final Path gameDir;
+    private final PathFilter filter;
+    private final WatchService ws;
+    private final Map<WatchKey, Path> keys = new ConcurrentHashMap<>();
+    private final Set<String> singleFiles = new HashSet<>(); // include entries that are plain files (watched via parent)
+    private final Set<Path> treeDirs = ConcurrentHashMap.newKeySet(); // watched directories inside included folders
+    private final Set<String> dirty = ConcurrentHashMap.newKeySet();
+    private volatile boolean overflow = false;
+    private volatile long generation = 0L; // hash cache snapshot the dirty set is relative to (0 = none yet)
+
+    private LocalChangeWatcher(Path gameDir, PathFilter filter, WatchService ws) {
+        this.gameDir = gameDir;
+        this.filter = filter;
+        this.ws = ws;
+    }
+
+    /** Starts watching (once per process). Call before the first scan so no change between scan and watch is lost. */
+    public static synchronized void start(Path gameDir, Config cfg) {
+        if (active != null || !cfg.isWatchLocalChanges()) return;
+        try {
+            LocalChangeWatcher w = new LocalChangeWatcher(gameDir, cfg.getPathFilter(), FileSystems.getDefault().newWatchService());
+            w.registerIncludes();
+            Thread t = new Thread(w, "MPU-Watcher");
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            t.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(w::persist, "MPU-Watcher-Shutdown"));
+            active = w;
+            Constants.LOG.info("ModPackUpdater: watching {} directories for local changes", w.keys.size());
+        } catch (IOException e) {
+            Constants.LOG.warn("Failed to start local change watcher: {}", e.toString());
+        }
+    }
+
+    /** True if a watcher is recording changes in this process, so this session will leave a journal at shutdown. */
+    static boolean isActive() {
+        return active != null;
+    }
+
+    /** Called when the hash cache is saved: recorded changes are now relative to that snapshot. */
+    static void rebase(long generation) {
+        LocalChangeWatcher w = active;
+        if (w != null) w.generation = generation;
+    }
+
+    /**
+     * Rebases onto a snapshot that the previous session's journal was relative to, keeping that journal's changes
+     * (which the snapshot doesn't reflect) so the next journal still reports them.
+     */
+    static void carryOver(long generation, java.util.Collection<String> changed) {
+        LocalChangeWatcher w = active;
+        if (w == null) return;
+        w.dirty.addAll(changed);
+        w.generation = generation;
+    }
+
+    private void registerIncludes() throws IOException {
+        Set<Path> parentsOfFiles = new HashSet<>();
+        for (String root : filter.roots()) {
+            Path p = gameDir.resolve(root).normalize();
+            if (!FileUtils.isSafeChild(gameDir, p)) continue;
+            if (Files.isDirectory(p)) {
+                registerTree(p);
+            } else {
+                singleFiles.add(rel(p));
+                if (p.getParent() != null && Files.isDirectory(p.getParent())) parentsOfFiles.add(p.getParent());
+            }
+        }
+        for (Path parent : parentsOfFiles) register(parent);
+    }
+
+    private void registerTree(Path root) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                if (!filter.shouldDescend(rel(dir))) return FileVisitResult.SKIP_SUBTREE;
+                register(dir);
+                treeDirs.add(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void register(Path dir) throws IOException {
+        WatchKey key = dir.register(ws, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+        keys.put(key, dir);
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (!overflow) {
+                WatchKey key = ws.take();
+                Path dir = keys.get(key);
+                if (dir != null) {
+                    for (WatchEvent<?> ev : key.pollEvents()) {
+                        if (ev.kind() == StandardWatchEventKinds.OVERFLOW) { overflow = true; break; }
+                        Path child = dir.resolve((Path) ev.context());
+                        String rel = rel(child);
+                        boolean isDir = Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS);
+                        if (!(isDir ? filter.shouldDescend(rel) : filter.matches(rel)) && !singleFiles.contains(rel)) continue;
+                        dirty.add(rel);
+                        if (ev.kind() == StandardWatchEventKinds.ENTRY_CREATE && isDir) {
+                            try { registerTree(child); } catch (IOException e) { overflow = true; }
+                        }
+                    }
+                    if (dirty.size() > MAX_DIRTY) overflow = true;
+                }
+                if (!key.reset()) keys.remove(key);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException ignored) {
+        }
+        if (overflow) {
+            Constants.LOG.info("ModPackUpdater: too many local changes to track; next launch will do a full scan");
+            try { ws.close(); } catch (IOException ignored) {}
+        }
+    }
+
+    private void persist() {
+        Journal j = new Journal();
+        j.generation = generation;
+        j.includes = filter.signature();
+        j.overflow = overflow || generation == 0L;
+        if (!j.overflow) {
+            j.paths = new ArrayList<>(new TreeSet<>(dirty));
+            for (Path dir : treeDirs) {
+                try { j.dirMtimes.put(rel(dir), Files.getLastModifiedTime(dir).toMillis()); } catch (IOException ignored) {}
+            }
+        }
+        try { ws.close(); } catch (IOException ignored) {}
+        Path f = journalFile(gameDir);
+        try {
+            Files.createDirectories(f.getParent());
+            Path tmp = f.resolveSibling(f.getFileName() + ".tmp");
+            try (Writer w = Files.newBufferedWriter(tmp)) {
+                GSON.toJson(j, w);
+            }
+            Files.move(tmp, f, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Constants.LOG.warn("Failed to save local change journal: {}", e.toString());
+        }
+    }
+
+    private String rel(Path p) {
+        return gameDir.relativize(p).toString().replace('\\', '/');
+    }
+
+    public static Path journalFile(Path gameDir) {
+        return gameDir.resolve("modpackupdater").resolve("changes.json");
+    }
+
+    /** Loads and deletes the journal left by the previous session; null if there is none or it can't be read. */
+    public static Journal consumeJournal(Path gameDir) {
+        Path f = journalFile(gameDir);
+        try {
+            if (Files.notExists(f)) return null;
+            Journal j;
+            try (Reader r = Files.newBufferedReader(f)) {
+                j = GSON.fromJson(r, Journal.class);
+            }
+            Files.deleteIfExists(f);
+            return j;
+        } catch (IOException | JsonParseException e) {
+            Constants.LOG.warn("Failed to read local change journal: {}", e.toString());
+            try { Files.deleteIfExists(f); } catch (IOException ignored) {}
+            return null;
+        }
+    }
+
+    public static class Journal {
+        @SerializedName("format") public int format = FORMAT;
+        @SerializedName("generation") public long generation;
+        @SerializedName("includes") public String includes;
+        @SerializedName("overflow") public boolean overflow;
+        @SerializedName("paths") public List<String> paths = new ArrayList<>();
+        @SerializedName("dirMtimes") public Map<String, Long> dirMtimes = new HashMap<>();
+
+        /** True if this journal covers every change since the given hash cache snapshot was taken. */
+        public boolean isUsableWith(HashCache cache, Config cfg) { return isUsableWith(cache.getGeneration(), cfg); }
+
+        /** As above, for the hash cache snapshot with the given generation. */
+        public boolean isUsableWith(long cacheGeneration, Config cfg) {
+            return format == FORMAT && !overflow && generation != 0L && generation == cacheGeneration
+                    && paths != null && dirMtimes != null && cfg.getPathFilter().signature().equals(includes);
+        }
+
+        /**
+         * Relative paths to re-stat: the recorded changes, directories whose mtime moved while the game was not
+         * running, and include entries without a recorded directory (single files, folders created since).
+         */
+        public Set<String> changedPaths(Path gameDir, Config cfg) {
+            Set<String> changed = new HashSet<>(paths);
+            for (String root : cfg.getPathFilter().roots()) {
+                Path p = gameDir.resolve(root).normalize();
+                if (!FileUtils.isSafeChild(gameDir, p)) continue;
+                String rel = gameDir.relativize(p).toString().replace('\\', '/');
+                if (!rel.isEmpty() && !dirMtimes.containsKey(rel)) changed.add(rel);
+            }
+            for (var e : dirMtimes.entrySet()) {
+                Path dir = gameDir.resolve(e.getKey());
+                try {
+                    if (Files.getLastModifiedTime(dir).toMillis() != e.getValue()) changed.add(e.getKey());
+                } catch (IOException missing) {
+                    changed.add(e.getKey());
+                }
+            }
+            return changed;
+        }
+
+        /**
+         * Local state from the hash cache snapshot: its files are stat'ed one by one and only the recorded changes, plus
+         * directories whose mtime moved while the game was not running, are listed. A file whose stat tuple no longer
+         * matches its entry comes back without a hash. Entries match {@link FileUtils#statLocalState} output.
+         */
+        public List<DiffRequest.FileEntry> localState(Path gameDir, HashCache cache, Config cfg) throws IOException {
+            Set<String> changed = changedPaths(gameDir, cfg);
+            PathFilter filter = cfg.getPathFilter();
+            List<String> roots = new ArrayList<>(changed);
+            for (String rel : cache.paths()) {
+                if (!isUnderAny(rel, changed) && filter.matches(rel)) roots.add(rel);
+            }
+            // Files are stat'ed against the cache like in a full scan; only the folder listings are skipped
+            List<DiffRequest.FileEntry> out = FileUtils.statLocalState(gameDir, filter, roots.toArray(new String[0]), cache, cfg.getScanThreads());
+            Constants.LOG.info("ModPackUpdater: local change journal -> {} changed paths listed, {} files stat'ed from the cache snapshot",
+                    changed.size(), roots.size() - changed.size());
+            return out;
+        }
+
+        static boolean isUnderAny(String rel, Set<String> roots) {
+            if (roots.isEmpty()) return false;
+            if (roots.contains(rel)) return true;
+            for (int i = rel.indexOf('/'); i > 0; i = rel.indexOf('/', i + 1)) {
+                if (roots.contains(rel.substring(0, i))) return true;
+            }
+            return false;
+        }
+    }
+}
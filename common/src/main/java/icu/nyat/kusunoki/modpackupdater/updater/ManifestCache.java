@@ -0,0 +1,172 @@
+package icu.nyat.kusunoki.modpackupdater.updater;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import com.google.gson.annotations.SerializedName;
+import icu.nyat.kusunoki.modpackupdater.Constants;
+import icu.nyat.kusunoki.modpackupdater.updater.api.ApiClient;
+import icu.nyat.kusunoki.modpackupdater.updater.api.ManifestReader;
+import icu.nyat.kusunoki.modpackupdater.updater.dto.Manifest;
+import icu.nyat.kusunoki.modpackupdater.updater.util.FileUtils;
+import icu.nyat.kusunoki.modpackupdater.updater.util.PathFilter;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Predicate;
+
+/**
+ * The last manifest fetched ({@code manifest.json}, as received) and its validators for conditional requests, plus
+ * whether the last run left the game directory matching it. With that, a launch where the server answers 304 and the
+ * change journal shows nothing relevant touched locally is finished without scanning.
+ */
+public class ManifestCache {
+    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
+
+    @SerializedName("configKey")
+    public String configKey; // baseUrl, pack and sync options the manifest was fetched and applied with
+
+    @SerializedName("etag")
+    public String etag;
+
+    @SerializedName("lastModified")
+    public String lastModified; // Last-Modified, or the manifest's createdAt as an HTTP date
+
+    // The last run left the game directory matching this manifest
+    @SerializedName("upToDate")
+    public boolean upToDate;
+
+    // Hash cache snapshot at the end of that run; the change journal has to be relative to it
+    @SerializedName("cacheGeneration")
+    public long cacheGeneration;
+
+    // {size, mtime} of include entries that are not folders ({-1, -1} if missing) at the end of that run
+    @SerializedName("rootStats")
+    public Map<String, long[]> rootStats = new HashMap<>();
+
+    public static Path file(Path gameDir) {
+        return gameDir.resolve("modpackupdater").resolve("manifest-cache.json");
+    }
+
+    public static Path bodyFile(Path gameDir) {
+        return gameDir.resolve("modpackupdater").resolve("manifest.json");
+    }
+
+    public static ManifestCache load(Path gameDir) {
+        Path f = file(gameDir);
+        try {
+            if (Files.notExists(f)) return new ManifestCache();
+            try (Reader r = Files.newBufferedReader(f)) {
+                ManifestCache c = GSON.fromJson(r, ManifestCache.class);
+                if (c == null) return new ManifestCache();
+                if (c.rootStats == null) c.rootStats = new HashMap<>();
+                return c;
+            }
+        } catch (IOException | JsonParseException e) {
+            Constants.LOG.warn("Failed to read manifest cache: {}", e.toString());
+            return new ManifestCache();
+        }
+    }
+
+    public void save(Path gameDir) {
+        Path f = file(gameDir);
+        try {
+            Files.createDirectories(f.getParent());
+            Path tmp = f.resolveSibling(f.getFileName() + ".tmp");
+            try (Writer w = Files.newBufferedWriter(tmp)) {
+                GSON.toJson(this, w);
+            }
+            Files.move(tmp, f, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Constants.LOG.warn("Failed to save manifest cache: {}", e.toString());
+        }
+    }
+
+    /** Validators to send, or null if there is no saved manifest for this config to fall back on after a 304. */
+    public String[] validatorsFor(Path gameDir, String configKey) {
+        if (!Objects.equals(this.configKey, configKey) || (etag == null && lastModified == null)) return null;
+        return Files.exists(bodyFile(gameDir)) ? new String[]{ etag, lastModified } : null;
+    }
+
+    /** Identity of the saved manifest for comparison with a plan's; null if it has no validators. */
+    public String validators() {
+        return etag != null || lastModified != null ? etag + "\n" + lastModified : null;
+    }
+
+    /** Saved manifest with the file entries passing {@code include}, or null if missing or unreadable. */
+    public static Manifest readBody(Path gameDir, Predicate<String> include) {
+        Path f = bodyFile(gameDir);
+        try (Reader r = Files.newBufferedReader(f)) {
+            return ManifestReader.read(r, include);
+        } catch (IOException | JsonParseException e) {
+            Constants.LOG.warn("Failed to read saved manifest: {}", e.toString());
+            return null;
+        }
+    }
+
+    /**
+     * The manifest without its file entries (pack, versions, loader), asked for conditionally with the saved copy's
+     * validators so an unchanged manifest comes from disk after a 304. Reads the cache but leaves it to the update run.
+     */
+    public static Manifest fetchHeader(Path gameDir, Config cfg, ApiClient api) throws IOException, InterruptedException {
+        String[] v = load(gameDir).validatorsFor(gameDir, UpdatePlan.configKey(cfg));
+        if (v != null) {
+            ApiClient.ManifestResponse r = api.getManifest(v[0], v[1], null, path -> false);
+            if (!r.notModified) return r.manifest;
+            Manifest saved = readBody(gameDir, path -> false);
+            if (saved != null) return saved;
+        }
+        return api.getManifest(path -> false);
+    }
+
+    /** Where a manifest is written while it is fetched; {@link #store} moves it into place. */
+    public static Path bodyTempFile(Path gameDir) throws IOException {
+        Files.createDirectories(bodyFile(gameDir).getParent());
+        return bodyFile(gameDir).resolveSibling("manifest.json.tmp");
+    }
+
+    /** Records a freshly fetched manifest, written to {@link #bodyTempFile}; it is not applied yet. */
+    public void store(Path gameDir, String configKey, String etag, String lastModified) {
+        this.configKey = configKey;
+        this.etag = etag;
+        this.lastModified = lastModified;
+        this.upToDate = false;
+        try {
+            Files.move(bodyTempFile(gameDir), bodyFile(gameDir), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Constants.LOG.warn("Failed to save manifest: {}", e.toString());
+            this.etag = null;
+            this.lastModified = null;
+        }
+        save(gameDir);
+    }
+
+    /** Stat tuples of the include entries that are plain files or missing, keyed by relative path. */
+    public static Map<String, long[]> statRoots(Path gameDir, PathFilter filter) {
+        Map<String, long[]> out = new HashMap<>();
+        for (String root : filter.roots()) {
+            Path p = gameDir.resolve(root).normalize();
+            if (!FileUtils.isSafeChild(gameDir, p) || Files.isDirectory(p)) continue;
+            out.put(gameDir.relativize(p).toString().replace('\\', '/'), stat(p));
+        }
+        return out;
+    }
+
+    static long[] stat(Path p) {
+        try {
+            BasicFileAttributes a = Files.readAttributes(p, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            return new long[]{ a.size(), a.lastModifiedTime().toMillis() };
+        } catch (IOException missing) {
+            return new long[]{ -1L, -1L };
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package icu.nyat.kusunoki.modpackupdater.updater;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import com.google.gson.annotations.SerializedName;
+import icu.nyat.kusunoki.modpackupdater.Constants;
+import icu.nyat.kusunoki.modpackupdater.updater.util.ModMetadataUtils;
+import icu.nyat.kusunoki.modpackupdater.updater.util.ModMetadataUtils.ModInfo;
+import icu.nyat.kusunoki.modpackupdater.updater.util.ModMetadataUtils.ModMetadata;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Persistent cache of mod jar metadata (id, name, version, loader, nested jars), keyed by relative path and validated
+ * against the jar's stat tuple like {@link HashCache}, so unchanged jars are never reopened and a changed jar is opened
+ * once per run. Entries of jars that no longer exist are dropped on save.
+ */
+public class ModMetadataCache {
+    private static final Gson GSON = new GsonBuilder().create();
+    // Bump when the entry layout or what gets extracted from jars changes; older caches are discarded on load
+    private static final int FORMAT = 3;
+
+    @SerializedName("format")
+    private int format = FORMAT;
+
+    @SerializedName("entries")
+    private ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    private transient final Set<String> seen = ConcurrentHashMap.newKeySet();
+    private transient final AtomicLong hits = new AtomicLong();
+    private transient final AtomicLong misses = new AtomicLong();
+    private transient final AtomicLong readNanos = new AtomicLong();
+    private transient volatile boolean dirty = false;
+
+    public static class Entry {
+        @SerializedName("size") public long size;
+        @SerializedName("mtime") public long mtime;  // last-modified, epoch millis
+        @SerializedName("key") public String fileKey; // inode/file key if the platform provides one
+        @SerializedName("hasInfo") public boolean hasInfo; // false when the jar carries no recognised metadata
+        @SerializedName("id") public String id;
+        @SerializedName("name") public String name;
+        @SerializedName("version") public String version;
+        @SerializedName("loader") public String loader;
+        @SerializedName("nestedJars") public List<String> nestedJars = new ArrayList<>();
+
+        ModInfo toInfo() { return hasInfo ? new ModInfo(id, name, version) : null; }
+    }
+
+    public static Path file(Path gameDir) {
+        return gameDir.resolve("modpackupdater").resolve("modmeta.json");
+    }
+
+    public static ModMetadataCache load(Path gameDir) {
+        Path f = file(gameDir);
+        try {
+            if (Files.notExists(f)) return new ModMetadataCache();
+            try (Reader r = Files.newBufferedReader(f)) {
+                ModMetadataCache c = GSON.fromJson(r, ModMetadataCache.class);
+                if (c == null || c.format != FORMAT || c.entries == null) {
+                    Constants.LOG.info("Discarding incompatible mod metadata cache at {}", f);
+                    return new ModMetadataCache();
+                }
+                return c;
+            }
+        } catch (IOException | JsonParseException e) {
+            Constants.LOG.warn("Failed to read mod metadata cache, starting empty: {}", e.toString());
+            return new ModMetadataCache();
+        }
+    }
+
+    /** Writes the cache atomically after evicting entries whose jars are gone. */
+    public void save(Path gameDir) {
+        for (String rel : entries.keySet()) {
+            if (!seen.contains(rel) && Files.notExists(gameDir.resolve(rel))) { entries.remove(rel); dirty = true; }
+        }
+        if (!dirty) return;
+        Path f = file(gameDir);
+        try {
+            Files.createDirectories(f.getParent());
+            Path tmp = f.resolveSibling(f.getFileName() + ".tmp");
+            try (Writer w = Files.newBufferedWriter(tmp)) {
+                GSON.toJson(this, w);
+            }
+            Files.move(tmp, f, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            dirty = false;
+        } catch (IOException e) {
+            Constants.LOG.warn("Failed to save mod metadata cache: {}", e.toString());
+        }
+    }
+
+    /** Mod identity of the jar at {@code relPath}, or null if it has none or can't be read. */
+    public ModInfo info(Path gameDir, String relPath) {
+        Entry e = entry(gameDir, relPath);
+        return e != null ? e.toInfo() : null;
+    }
+
+    /** Version as {@link ModMetadataUtils#readModMetadata(Path)} reports it, or null. */
+    public String version(Path gameDir, String relPath) {
+        Entry e = entry(gameDir, relPath);
+        return e != null ? e.version : null;
+    }
+
+    /** Loader whose descriptor identified the jar ("fabric", "quilt", "neoforge", "forge"), or null. */
+    public String loader(Path gameDir, String relPath) {
+        Entry e = entry(gameDir, relPath);
+        return e != null ? e.loader : null;
+    }
+
+    /** Jar-in-jar paths the jar's descriptor lists; empty if none or the jar can't be read. */
+    public List<String> nestedJars(Path gameDir, String relPath) {
+        Entry e = entry(gameDir, relPath);
+        return e != null && e.nestedJars != null ? e.nestedJars : List.of();
+    }
+
+    private Entry entry(Path gameDir, String relPath) {
+        Path jar = gameDir.resolve(relPath);
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(jar, BasicFileAttributes.class);
+        } catch (IOException missing) {
+            return null;
+        }
+        seen.add(relPath);
+        long mtime = attrs.lastModifiedTime().toMillis();
+        String key = attrs.fileKey() != null ? attrs.fileKey().toString() : null;
+        Entry e = entries.get(relPath);
+        if (e != null && e.size == attrs.size() && e.mtime == mtime && Objects.equals(e.fileKey, key)) {
+            hits.incrementAndGet();
+            return e;
+        }
+        misses.incrementAndGet();
+        e = new Entry();
+        e.size = attrs.size(); e.mtime = mtime; e.fileKey = key;
+        long started = System.nanoTime();
+        ModMetadata md = ModMetadataUtils.readModMetadata(jar); // one open, stopping once everything is known
+        readNanos.addAndGet(System.nanoTime() - started);
+        if (md != null) {
+            ModInfo mi = md.toInfo();
+            e.hasInfo = mi != null; e.id = md.id; e.name = md.name; e.version = md.version; e.loader = md.loader;
+            e.nestedJars.addAll(md.nestedJars);
+        }
+        entries.put(relPath, e);
+        dirty = true;
+        return e;
+    }
+
+    public long getHits() { return hits.get(); }
+    public long getMisses() { return misses.get(); }
+    /** Time spent opening jars and parsing descriptors on misses, in milliseconds. */
+    public long getReadMillis() { return readNanos.get() / 1_000_000L; }
+}
@@ -0,0 +1,102 @@
+package icu.nyat.kusunoki.modpackupdater.updater;
+
+import icu.nyat.kusunoki.modpackupdater.updater.dto.Manifest;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Result of the planning half of {@link UpdateRunner}: which manifest it was computed against and what applying it
+ * will fetch, delete and rename. A check-only run hands its plan to the update prompt, so "Update now" applies it
+ * directly instead of fetching, scanning and diffing again. Before that, {@link #isStillValid} re-stats only the files
+ * the plan touches.
+ */
+public final class UpdatePlan {
+    /** A local mod jar that only moved on the server: moved in place instead of downloaded. */
+    public static final class Rename {
+        public final String from;
+        public final Manifest.FileEntry to;
+        Rename(String from, Manifest.FileEntry to) { this.from = from; this.to = to; }
+    }
+
+    // Manifest identity
+    final String packId;
+    final String version;
+    final String createdAt;
+    String manifestValidators; // ETag/Last-Modified of the saved manifest this plan was made from; null if none
+    final String configKey; // config the plan was computed with; a changed config invalidates it
+
+    final List<Manifest.FileEntry> serverFiles; // included manifest entries, recorded in the installed index after apply
+    final List<Manifest.FileEntry> fetches = new ArrayList<>();
+    final List<String> deletes = new ArrayList<>();
+    final List<Rename> renames = new ArrayList<>();
+    final List<String> addedPaths = new ArrayList<>();
+    final Map<String, String> localSources = new HashMap<>(); // fetch path -> local path already holding that content
+    // Update path -> SHA-256 of its local content, for files that may be patched or rebuilt from local archive entries
+    final Map<String, String> deltaBases = new HashMap<>();
+    long adds, updates, keeps;
+
+    // Decorated lists shown by the prompt (check-only runs only)
+    List<String> addList = List.of(), updateList = List.of(), deleteList = List.of();
+
+    // Stat tuple {size, mtime} of every local path the plan touches at planning time; null = did not exist
+    private final Map<String, long[]> snapshot = new HashMap<>();
+
+    UpdatePlan(Manifest manifest, Config cfg, List<Manifest.FileEntry> serverFiles) {
+        this.packId = manifest != null ? manifest.packId : cfg.getPackId();
+        this.version = manifest != null ? manifest.version : "latest";
+        this.createdAt = manifest != null ? manifest.createdAt : null;
+        this.configKey = configKey(cfg);
+        this.serverFiles = serverFiles;
+    }
+
+    public boolean isEmpty() { return fetches.isEmpty() && deletes.isEmpty() && renames.isEmpty(); }
+
+    public String getPackId() { return packId; }
+    public String getVersion() { return version; }
+    public List<String> getAddList() { return addList; }
+    public List<String> getUpdateList() { return updateList; }
+    public List<String> getDeleteList() { return deleteList; }
+
+    /** Records the current state of every path the plan reads, replaces or removes. */
+    void snapshot(Path gameDir) {
+        snapshot.clear();
+        for (Manifest.FileEntry fe : fetches) snapshot.put(fe.path, stat(gameDir, fe.path));
+        for (String rel : deletes) snapshot.put(rel, stat(gameDir, rel));
+        for (String src : localSources.values()) snapshot.put(src, stat(gameDir, src));
+        for (Rename r : renames) { snapshot.put(r.from, stat(gameDir, r.from)); snapshot.put(r.to.path, stat(gameDir, r.to.path)); }
+    }
+
+    /** True if the config is unchanged and none of the files involved changed since planning (a few stats, no hashing). */
+    boolean isStillValid(Path gameDir, Config cfg) {
+        if (!configKey.equals(configKey(cfg))) return false;
+        for (Map.Entry<String, long[]> e : snapshot.entrySet()) {
+            long[] now = stat(gameDir, e.getKey());
+            long[] then = e.getValue();
+            if (then == null ? now != null : now == null || then[0] != now[0] || then[1] != now[1]) return false;
+        }
+        return true;
+    }
+
+    private static long[] stat(Path gameDir, String rel) {
+        try {
+            BasicFileAttributes a = Files.readAttributes(gameDir.resolve(rel), BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            return new long[]{ a.size(), a.lastModifiedTime().toMillis() };
+        } catch (IOException missing) {
+            return null;
+        }
+    }
+
+    static String configKey(Config cfg) {
+        return Objects.toString(cfg.getBaseUrl()) + '\n' + cfg.getPackId() + '\n' + cfg.getPathFilter().signature()
+                + cfg.isOverwriteModifiedConfigs() + cfg.isOverwriteUnmanagedConfigs() + cfg.isDeleteExtraConfigs();
+    }
+}
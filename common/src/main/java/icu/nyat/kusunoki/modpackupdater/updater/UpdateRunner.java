@@ -2,9 +2,14 @@ package icu.nyat.kusunoki.modpackupdater.updater;
 
 import icu.nyat.kusunoki.modpackupdater.Constants;
 import icu.nyat.kusunoki.modpackupdater.updater.api.ApiClient;
+import icu.nyat.kusunoki.modpackupdater.updater.api.HttpClientProvider;
 import icu.nyat.kusunoki.modpackupdater.updater.dto.Manifest;
-import icu.nyat.kusunoki.modpackupdater.updater.util.ModMetadataUtils;
+import icu.nyat.kusunoki.modpackupdater.updater.util.HashArray;
+import icu.nyat.kusunoki.modpackupdater.updater.util.HashEngine;
+import icu.nyat.kusunoki.modpackupdater.updater.util.MerkleTree;
 import icu.nyat.kusunoki.modpackupdater.updater.util.ModMetadataUtils.ModInfo;
+import icu.nyat.kusunoki.modpackupdater.updater.util.PathTable;
+import icu.nyat.kusunoki.modpackupdater.updater.util.ZipSync;
 
 import java.io.IOException;
 import java.nio.file.Files;
@@ -19,6 +24,23 @@ public class UpdateRunner implements Runnable {
     private final boolean isWindows = System.getProperty("os.name", "").toLowerCase(java.util.Locale.ROOT).contains("win");
     private final boolean checkOnly; // check-only mode for auto run
     private final UpdateProgressListener listener; // optional listener for UI updates
+    private HashCache hashCache; // loaded per execution; downloaded files are recorded so the next scan can skip them
+    private final Set<String> hashedLazily = ConcurrentHashMap.newKeySet(); // local paths hashed on demand during the diff
+    private InstalledIndex installedIndex;
+    private ModMetadataCache modMeta; // mod id/name/version per jar, reused while the jar's stat tuple is unchanged
+    // path -> {sha256, fingerprint} learned while hashing; recorded in the installed index once it holds that sha
+    private final Map<String, String[]> learnedFingerprints = new ConcurrentHashMap<>();
+    private final java.util.concurrent.atomic.AtomicInteger fingerprintShortcuts = new java.util.concurrent.atomic.AtomicInteger();
+    private Map<String, String> deltaBases = Map.of(); // of the plan being applied
+    private ManifestCache manifestCache;
+    private String manifestValidators; // of the manifest this run fetched (or reused after a 304)
+    private boolean manifestNotModified;
+    private long manifestNanos; // spent fetching the manifest this run
+    private long stagesStart; // when the scan stage was started
+    private LocalChangeWatcher.Journal journal; // the previous session's, read (and deleted) at most once per run
+    private boolean journalTaken;
+    // Smaller files are downloaded whole; a patch round trip would not save anything worth having
+    private static final long DELTA_MIN_SIZE = 64 * 1024;
 
     public UpdateRunner(Path gameDir, Config cfg) { this(gameDir, cfg, false, null); }
     public UpdateRunner(Path gameDir, Config cfg, boolean checkOnly) { this(gameDir, cfg, checkOnly, null); }
@@ -31,259 +53,831 @@ public class UpdateRunner implements Runnable {
     /** Executes the update flow. @return true if no errors while applying (or check-only mode), false if apply failed. */
     public boolean execute() {
         try {
-            status("Fetching manifest...");
-            InstalledIndex installedIndex = InstalledIndex.load(gameDir);
-            Constants.LOG.info("ModPackUpdater: fetching server manifest...");
+            long start = System.nanoTime();
             ApiClient api = new ApiClient(cfg);
-            Manifest manifest = api.getManifest();
-            List<Manifest.FileEntry> serverFiles = manifest != null && manifest.files != null ? manifest.files : List.of();
+            manifestCache = ManifestCache.load(gameDir);
+            Manifest manifest = null;
+            CompletableFuture<Scan> scanning = null;
+            Set<String> carried = cfg.isServerDiff() ? null : localChangesSinceUpToDate();
+            if (carried != null) {
+                // The scan stage runs while the conditional request is out, so a changed manifest doesn't wait for the
+                // disk afterwards; after a 304 its result is dropped (it only touches caches in memory)
+                scanning = scanAsync(true);
+                long fetchStart = System.nanoTime();
+                try {
+                    manifest = fetchManifest(api, false);
+                } catch (IOException | InterruptedException | RuntimeException e) {
+                    keepScanOf(scanning);
+                    throw e;
+                }
+                manifestNanos = System.nanoTime() - fetchStart;
+                if (manifestNotModified) {
+                    // Same manifest as the last run ended up matching, and nothing it covers touched since: no scan
+                    LocalChangeWatcher.carryOver(manifestCache.cacheGeneration, carried);
+                    status("Already up to date");
+                    Constants.LOG.info("ModPackUpdater: up to date (manifest not modified, {} unmanaged local changes) in {} ms",
+                            carried.size(), (System.nanoTime() - start) / 1_000_000L);
+                    return true;
+                }
+            }
+            if (scanning == null) loadState();
+            return finish(api, plan(api, manifest, scanning));
+        } catch (Exception e) {
+            status("Update failed");
+            Constants.LOG.error("ModPackUpdater: update failed", e);
+            return false;
+        } finally {
+            Constants.LOG.info("ModPackUpdater: HTTP since launch: {}", HttpClientProvider.stats());
+        }
+    }
 
-            // NEW: fetch mods list from separate endpoint (manifest no longer includes mods per updated API)
-            status("Fetching mods metadata...");
-            List<Manifest.ModEntry> serverMods;
+    /**
+     * Applies a plan computed by an earlier check-only run without fetching, scanning and diffing again. The files it
+     * touches are re-stat'ed first; if any of them (or the sync config) changed since, the update is planned afresh.
+     */
+    public boolean execute(UpdatePlan plan) {
+        try {
+            loadState();
+            ApiClient api = new ApiClient(cfg);
+            manifestCache = ManifestCache.load(gameDir);
+            if (plan == null || !plan.isStillValid(gameDir, cfg)) {
+                Constants.LOG.info("ModPackUpdater: local files changed since the update check, planning again");
+                plan = plan(api, null, null);
+            } else {
+                Constants.LOG.info("ModPackUpdater: applying plan from the update check ({} {})", plan.packId, plan.version);
+            }
+            return finish(api, plan);
+        } catch (Exception e) {
+            status("Update failed");
+            Constants.LOG.error("ModPackUpdater: update failed", e);
+            return false;
+        } finally {
+            Constants.LOG.info("ModPackUpdater: HTTP since launch: {}", HttpClientProvider.stats());
+        }
+    }
+
+    // Threads for the manifest/mods/scan stages of planning; idle ones go away on their own
+    private static final ExecutorService STAGES = Executors.newCachedThreadPool(r -> { Thread t = new Thread(r, "MPU-Plan"); t.setDaemon(true); return t; });
+
+    private void loadState() {
+        if (installedIndex == null) installedIndex = InstalledIndex.load(gameDir);
+        hashCache = HashCache.load(gameDir);
+        modMeta = ModMetadataCache.load(gameDir);
+    }
+
+    /**
+     * Fetches the manifest (unless given), scans and diffs local files; touches nothing under the game directory
+     * except caches. {@code scanning} is a scan stage already started alongside the manifest fetch, or null.
+     */
+    private UpdatePlan plan(ApiClient api, Manifest manifest, CompletableFuture<Scan> scanning) throws IOException, InterruptedException {
+        icu.nyat.kusunoki.modpackupdater.updater.util.PathFilter pathFilter = cfg.getPathFilter();
+        List<icu.nyat.kusunoki.modpackupdater.updater.dto.DiffRequest.FileEntry> local = null;
+        long scanNanos = 0;
+        // The mods list, the manifest and the local scan don't depend on each other, so they run as concurrent
+        // stages joined at the diff: on a slow link and a slow disk the wait is the longer of the two, not their sum
+        CompletableFuture<List<Manifest.ModEntry>> modsStage = CompletableFuture.supplyAsync(() -> {
             try {
-                serverMods = api.getMods();
+                return api.getMods(pathFilter::matches);
             } catch (Exception ex) {
+                if (ex instanceof InterruptedException) Thread.currentThread().interrupt();
                 Constants.LOG.warn("Failed to fetch mods metadata: {}", ex.toString());
-                serverMods = List.of();
+                return List.<Manifest.ModEntry>of();
             }
-
-            // Build map of server mod metadata by path (normalized) and by mod name (lowercase) for convenience
-            status("Processing manifest...");
-            Map<String, Manifest.ModEntry> serverModsByPath = new HashMap<>();
-            Map<String, Manifest.ModEntry> serverModsByName = new HashMap<>(); // name may be null
-            for (Manifest.ModEntry me : serverMods) {
-                if (me == null || me.path == null) continue;
-                if (!icu.nyat.kusunoki.modpackupdater.updater.util.FileUtils.isIncluded(me.path, cfg.getIncludePaths())) continue;
-                serverModsByPath.put(normKey(me.path), me);
-                if (me.name != null && !me.name.isBlank()) {
-                    serverModsByName.put(me.name.toLowerCase(java.util.Locale.ROOT), me);
+        }, STAGES);
+        if (manifest == null && cfg.isServerDiff() && api.supportsServerDiff()) {
+            // Server-side diff: the local listing goes up instead of the manifest coming down. The operations stand in
+            // for the manifest's file list below, so the keep/config/rename rules are applied the same either way.
+            status("Scanning local files...");
+            long scanStart = System.nanoTime();
+            local = scanLocalState(pathFilter);
+            scanNanos = System.nanoTime() - scanStart;
+            status("Requesting diff from server...");
+            try {
+                manifest = manifestFromDiff(api.postDiff(new icu.nyat.kusunoki.modpackupdater.updater.dto.DiffRequest(local)), local);
+            } catch (IOException | RuntimeException e) {
+                Constants.LOG.warn("Server diff failed: {}", e.toString());
+            }
+            if (manifest == null) Constants.LOG.info("ModPackUpdater: no usable server diff, fetching the manifest instead");
+        }
+        Scan pre = null;
+        if (local == null) {
+            if (scanning == null) scanning = scanAsync(false);
+            if (manifest == null) {
+                status("Fetching manifest...");
+                Constants.LOG.info("ModPackUpdater: fetching server manifest...");
+                long fetchStart = System.nanoTime();
+                try {
+                    manifest = fetchManifest(api, true);
+                } catch (IOException | InterruptedException | RuntimeException e) {
+                    keepScanOf(scanning);
+                    throw e;
                 }
+                manifestNanos += System.nanoTime() - fetchStart;
             }
+            if (!scanning.isDone()) status("Scanning local files...");
+            pre = await(scanning);
+        } else if (manifest == null) {
+            status("Fetching manifest...");
+            Constants.LOG.info("ModPackUpdater: fetching server manifest...");
+            manifest = fetchManifest(api, true);
+        }
+        List<Manifest.FileEntry> serverFiles = manifest != null && manifest.files != null ? manifest.files : List.of();
 
-            status("Scanning local files...");
-            List<icu.nyat.kusunoki.modpackupdater.updater.dto.DiffRequest.FileEntry> local = icu.nyat.kusunoki.modpackupdater.updater.util.FileUtils
-                    .computeLocalState(gameDir, cfg.getIncludePaths());
-
-            // Build maps (case-insensitive on Windows)
-            Map<String, Manifest.FileEntry> serverMap = new HashMap<>();
-            for (Manifest.FileEntry fe : serverFiles) {
-                if (fe == null || fe.path == null) continue;
-                if (!icu.nyat.kusunoki.modpackupdater.updater.util.FileUtils.isIncluded(fe.path, cfg.getIncludePaths())) continue;
-                serverMap.put(normKey(fe.path), fe);
-            }
-            Map<String, icu.nyat.kusunoki.modpackupdater.updater.dto.DiffRequest.FileEntry> localMap = new HashMap<>();
-            for (var fe : local) { if (fe == null || fe.path == null) continue; localMap.put(normKey(fe.path), fe); }
+        // NEW: fetch mods list from separate endpoint (manifest no longer includes mods per updated API)
+        if (!modsStage.isDone()) status("Fetching mods metadata...");
+        List<Manifest.ModEntry> serverMods = await(modsStage);
+        if (pre != null && manifestNanos > 0) {
+            Constants.LOG.info("ModPackUpdater: manifest, mods and local scan done in {} ms overlapped (manifest {} ms, scan {} ms)",
+                    (System.nanoTime() - stagesStart) / 1_000_000L, manifestNanos / 1_000_000L, pre.nanos / 1_000_000L);
+        }
 
-            // Build local mods metadata maps (by id and by name) plus per-path info for version decoration
-            Map<String, icu.nyat.kusunoki.modpackupdater.updater.dto.DiffRequest.FileEntry> localModsById = new HashMap<>();
-            Map<String, icu.nyat.kusunoki.modpackupdater.updater.dto.DiffRequest.FileEntry> localModsByName = new HashMap<>();
-            Map<String, ModInfo> localModInfoByPath = new HashMap<>();
-            for (var fe : local) {
-                if (fe == null || fe.path == null) continue;
-                if (!isUnderFolder(fe.path, "mods")) continue;
-                try {
-                    ModInfo mi = ModMetadataUtils.readModInfo(gameDir.resolve(fe.path));
-                    if (mi != null) {
-                        localModInfoByPath.put(fe.path, mi);
-                        if (mi.id != null && !mi.id.isBlank()) localModsById.putIfAbsent(mi.id.toLowerCase(Locale.ROOT), fe);
-                        if (mi.name != null && !mi.name.isBlank()) localModsByName.putIfAbsent(mi.name.toLowerCase(Locale.ROOT), fe);
-                    }
-                } catch (Exception ignored) {}
+        // Every path is interned once (normalized, case-insensitive on Windows); per-path state below lives in arrays
+        // indexed by its id rather than in one string-keyed map per view.
+        status("Processing manifest...");
+        PathTable paths = new PathTable(serverFiles.size() * 5 / 4);
+        BitSet serverIds = new BitSet(), localIds = new BitSet();
+        Manifest.FileEntry[] server = new Manifest.FileEntry[serverFiles.size()];
+        HashArray serverShas = new HashArray(serverFiles.size());
+        for (Manifest.FileEntry fe : serverFiles) {
+            if (fe == null || fe.path == null) continue;
+            if (!pathFilter.matches(fe.path)) continue;
+            int id = paths.intern(normKey(fe.path));
+            server[id] = fe; serverIds.set(id); serverShas.set(id, fe.sha256);
+        }
+        Manifest.ModEntry[] serverModById = new Manifest.ModEntry[server.length]; // mod metadata of server files
+        for (Manifest.ModEntry me : serverMods) {
+            if (me == null || me.path == null) continue;
+            int id = paths.id(normKey(me.path));
+            if (id >= 0 && serverIds.get(id)) serverModById[id] = me;
+        }
+
+        // Only stat here; files without a valid cached hash are hashed during the diff, and only if size can't decide.
+        // With the manifest of the last apply at hand only the pack's own paths are stat'ed, not the include folders.
+        BitSet manifestChanged = new BitSet();
+        if (pre != null && pre.roots == null) { local = pre.local; scanNanos = pre.nanos; }
+        String[] deltaRoots = local != null ? null : manifestDeltaRoots(manifest, paths, server, serverIds, serverModById, manifestChanged);
+        if (deltaRoots != null) {
+            // The scan stage covered what the installed index predicted; only paths new in this manifest are left
+            long scanStart = System.nanoTime();
+            Set<String> roots = new LinkedHashSet<>(pre.roots);
+            List<String> missing = new ArrayList<>();
+            for (String r : deltaRoots) if (!LocalChangeWatcher.Journal.isUnderAny(r, pre.roots) && roots.add(r)) missing.add(r);
+            local = pre.local;
+            if (!missing.isEmpty()) local = statMore(local, missing, pathFilter);
+            hashCache.markPartial(roots, pre.journaled);
+            scanNanos = pre.nanos + System.nanoTime() - scanStart;
+        } else if (local == null) {
+            // The scan stage expected to plan against the installed index, but this manifest is for another pack
+            long scanStart = System.nanoTime();
+            local = completeScan(pre, pathFilter);
+            scanNanos = pre.nanos + System.nanoTime() - scanStart;
+        }
+        Constants.LOG.info("ModPackUpdater: scanned {} local files in {} ms ({} with cached hash)",
+                local.size(), scanNanos / 1_000_000L, hashCache.getHits());
+
+        icu.nyat.kusunoki.modpackupdater.updater.dto.DiffRequest.FileEntry[] localById = new icu.nyat.kusunoki.modpackupdater.updater.dto.DiffRequest.FileEntry[paths.size() + local.size()];
+        HashArray localShas = new HashArray(localById.length);
+        for (var fe : local) {
+            if (fe == null || fe.path == null) continue;
+            int id = paths.intern(normKey(fe.path));
+            localById[id] = fe; localIds.set(id); localShas.set(id, fe.sha256);
+        }
+
+        BitSet differing;
+        if (deltaRoots != null) {
+            // Paths the manifest changed go through the per-file diff, as do unchanged ones the hash cache can't vouch for
+            differing = (BitSet) manifestChanged.clone();
+            for (int id = serverIds.nextSetBit(0); id >= 0; id = serverIds.nextSetBit(id + 1)) {
+                if (!serverShas.same(id, localShas, id)) differing.set(id);
+            }
+            Constants.LOG.info("ModPackUpdater: {} of {} paths changed since the applied manifest ({}); {} paths to compare",
+                    manifestChanged.cardinality(), serverIds.cardinality(), installedIndex.version, differing.cardinality());
+        } else {
+            // Merkle trees over server and local content: include folders whose roots agree are up to date as a whole,
+            // and only files below differing subtrees (or with no cached local hash yet) go through the per-file diff.
+            // A server root equal to the one recorded at the last apply means the server left that folder alone; its
+            // files are then checked against the server hashes one by one, without building or walking a local subtree.
+            MerkleTree serverTree = MerkleTree.build(paths, serverShas, serverIds);
+            Map<String, String> serverRoots = serverTree.roots(), installedRoots = installedIndex.getMerkleRoots();
+            Set<String> unchangedRoots = new HashSet<>();
+            for (var r : serverRoots.entrySet()) if (r.getValue() != null && r.getValue().equals(installedRoots.get(r.getKey()))) unchangedRoots.add(r.getKey());
+            differing = new BitSet();
+            BitSet treeIds = localIds;
+            if (!unchangedRoots.isEmpty()) {
+                treeIds = new BitSet();
+                for (int id = localIds.nextSetBit(0); id >= 0; id = localIds.nextSetBit(id + 1)) {
+                    if (!unchangedRoots.contains(MerkleTree.rootOf(paths.path(id)))) treeIds.set(id);
+                }
+                for (int id = serverIds.nextSetBit(0); id >= 0; id = serverIds.nextSetBit(id + 1)) {
+                    if (unchangedRoots.contains(MerkleTree.rootOf(paths.path(id))) && !serverShas.same(id, localShas, id)) differing.set(id);
+                }
             }
+            MerkleTree localTree = MerkleTree.build(paths, localShas, treeIds);
+            differing.or(MerkleTree.diffIds(serverTree, localTree, unchangedRoots));
+            Map<String, String> localRoots = localTree.roots();
+            int sameRoots = 0;
+            for (var r : serverRoots.entrySet()) if (!unchangedRoots.contains(r.getKey()) && r.getValue() != null && r.getValue().equals(localRoots.get(r.getKey()))) sameRoots++;
+            Constants.LOG.info("ModPackUpdater: {} of {} include roots unchanged on the server since the last apply, {} more match the local tree; {} paths to compare",
+                    unchangedRoots.size(), serverRoots.size(), sameRoots, differing.cardinality());
+        }
 
-            boolean configIncluded = hasIncludeFolder(cfg.getIncludePaths(), "config");
-            boolean overwriteConfigMods = cfg.isOverwriteModifiedConfigs();
-            boolean overwriteUnmanagedConfigs = cfg.isOverwriteUnmanagedConfigs();
-            boolean deleteExtraConfigs = cfg.isDeleteExtraConfigs();
-
-            List<Manifest.FileEntry> toFetch = new ArrayList<>();
-            List<String> toDelete = new ArrayList<>();
-            List<String> addedPaths = new ArrayList<>();
-            long adds = 0, updates = 0, keeps = 0;
-            Map<String,String> renameOrigins = new HashMap<>(); // newPath -> oldPath when renamed & re-download needed
-
-            // Determine adds/updates/keeps
-            for (var e : serverMap.entrySet()) {
-                String key = e.getKey();
-                Manifest.FileEntry s = e.getValue();
-                var l = localMap.get(key); // direct path match first
-                boolean isConfigPath = configIncluded && isUnderFolder(s.path, "config");
-                String prevSha = installedIndex.getSha(s.path);
-                boolean managedBefore = prevSha != null && !prevSha.isBlank();
-                boolean matchedByName = false;
-                String renamedFromPath = null;
-
-                Manifest.ModEntry meForCurrent = null;
-                if (isUnderFolder(s.path, "mods")) {
-                    meForCurrent = serverModsByPath.get(key);
-                    // If path not found locally, attempt name/id based match to detect rename
-                    if (l == null && meForCurrent != null) {
-                        icu.nyat.kusunoki.modpackupdater.updater.dto.DiffRequest.FileEntry alt = null;
-                        if (meForCurrent.id != null && !meForCurrent.id.isBlank()) {
-                            alt = localModsById.get(meForCurrent.id.toLowerCase(Locale.ROOT));
-                        }
-                        if (alt == null && meForCurrent.name != null && !meForCurrent.name.isBlank()) {
-                            alt = localModsByName.get(meForCurrent.name.toLowerCase(Locale.ROOT));
-                        }
-                        if (alt != null) {
-                            l = alt; // treat as if this were the matching local file
-                            matchedByName = true;
-                            if (!alt.path.equals(s.path)) renamedFromPath = alt.path; // rename detected
-                        }
+        // Local mods by id/name for rename detection; only built once a server mod has no local path match
+        LocalModIndex localMods = new LocalModIndex(local);
+
+        boolean configIncluded = hasIncludeFolder(cfg.getIncludePaths(), "config");
+        boolean overwriteConfigMods = cfg.isOverwriteModifiedConfigs();
+        boolean overwriteUnmanagedConfigs = cfg.isOverwriteUnmanagedConfigs();
+        boolean deleteExtraConfigs = cfg.isDeleteExtraConfigs();
+
+        UpdatePlan plan = new UpdatePlan(manifest, cfg, serverFiles);
+        plan.manifestValidators = manifestValidators;
+        List<Manifest.FileEntry> toFetch = plan.fetches;
+        List<String> toDelete = plan.deletes;
+        List<String> addedPaths = plan.addedPaths;
+        long adds = 0, updates = 0, keeps = 0;
+        Map<String,String> renameOrigins = new HashMap<>(); // newPath -> oldPath for renamed mods
+
+        // Files whose size can't decide are hashed up front on the scan threads rather than one by one in the loop below.
+        // Mods the server gives a version for are left out: their jar version usually decides without reading them whole.
+        List<icu.nyat.kusunoki.modpackupdater.updater.dto.DiffRequest.FileEntry> toHash = new ArrayList<>();
+        for (int id = serverIds.nextSetBit(0); id >= 0; id = serverIds.nextSetBit(id + 1)) {
+            var l = localById[id];
+            if (!differing.get(id) || l == null || l.sha256 != null) continue;
+            if (serverModById[id] != null && !safe(serverModById[id].version).isEmpty()) continue;
+            Manifest.FileEntry s = server[id];
+            String prevSha = installedIndex.getSha(s.path);
+            boolean sizeDecides = l.size != null && s.size != null && !l.size.equals(s.size);
+            // a differing size still needs the hash when the server changed the file since install (modifiedSinceInstall)
+            if (!sizeDecides || prevSha != null && !prevSha.isBlank() && !prevSha.equalsIgnoreCase(s.sha256)) toHash.add(l);
+        }
+        hashAll(toHash);
+
+        // Determine adds/updates/keeps
+        for (int id = serverIds.nextSetBit(0); id >= 0; id = serverIds.nextSetBit(id + 1)) {
+            if (!differing.get(id)) { keeps++; continue; } // same content as the server, proven by the tree
+            Manifest.FileEntry s = server[id];
+            var l = localById[id]; // direct path match first
+            boolean isConfigPath = configIncluded && isUnderFolder(s.path, "config");
+            String prevSha = installedIndex.getSha(s.path);
+            boolean managedBefore = prevSha != null && !prevSha.isBlank();
+            boolean matchedByName = false;
+            String renamedFromPath = null;
+
+            Manifest.ModEntry meForCurrent = null;
+            if (isUnderFolder(s.path, "mods")) {
+                meForCurrent = serverModById[id];
+                // If path not found locally, attempt name/id based match to detect rename
+                if (l == null && meForCurrent != null) {
+                    icu.nyat.kusunoki.modpackupdater.updater.dto.DiffRequest.FileEntry alt = localMods.find(meForCurrent);
+                    if (alt != null) {
+                        l = alt; // treat as if this were the matching local file
+                        matchedByName = true;
+                        if (!alt.path.equals(s.path)) renamedFromPath = alt.path; // rename detected
                     }
                 }
+            }
 
-                boolean mismatch; boolean modifiedByPlayer;
-                if (isUnderFolder(s.path, "mods")) {
-                    Manifest.ModEntry me = meForCurrent; // already looked up
-                    String serverVer = me != null ? safe(me.version) : "";
-                    if (l != null && !serverVer.isEmpty()) {
-                        String localVer = safe(readLocalModVersion(gameDir.resolve(l.path)));
-                        if (!localVer.isEmpty()) {
-                            mismatch = !equalsVersionLoose(serverVer, localVer) || (renamedFromPath != null && !Objects.equals(l.sha256, s.sha256));
-                            modifiedByPlayer = managedBefore && l.sha256 != null && !l.sha256.equalsIgnoreCase(prevSha);
-                        } else { mismatch = l.sha256 == null || !l.sha256.equalsIgnoreCase(s.sha256); modifiedByPlayer = managedBefore && l.sha256 != null && !l.sha256.equalsIgnoreCase(prevSha); }
-                    } else { mismatch = (l == null) || l.sha256 == null || !l.sha256.equalsIgnoreCase(s.sha256); modifiedByPlayer = managedBefore && l != null && l.sha256 != null && !l.sha256.equalsIgnoreCase(prevSha); }
-                } else { mismatch = (l == null) || l.sha256 == null || !l.sha256.equalsIgnoreCase(s.sha256); modifiedByPlayer = managedBefore && l != null && l.sha256 != null && !l.sha256.equalsIgnoreCase(prevSha); }
-
-                if (l == null) {
-                    // Missing -> add
-                    adds++; toFetch.add(s); addedPaths.add(s.path);
-                } else if (mismatch) {
-                    if (isConfigPath) {
-                        if (!managedBefore) {
-                            if (overwriteUnmanagedConfigs) { updates++; toFetch.add(s); } else { keeps++; Constants.LOG.info("Keep unmanaged local config: {}", s.path); }
-                        } else if (modifiedByPlayer && !overwriteConfigMods) { keeps++; Constants.LOG.info("Keep modified local config: {}", s.path); }
-                        else { updates++; toFetch.add(s); }
-                    } else {
-                        if (matchedByName && renamedFromPath != null && l.sha256 != null && l.sha256.equalsIgnoreCase(s.sha256)) {
-                            // Pure rename with identical content: move instead of download
-                            try {
-                                Path from = gameDir.resolve(renamedFromPath).normalize();
-                                Path to = gameDir.resolve(s.path).normalize();
-                                Files.createDirectories(to.getParent());
-                                Files.move(from, to);
-                                keeps++; // treat as keep (renamed)
-                                Constants.LOG.info("Renamed mod file {} -> {} (hash unchanged)", renamedFromPath, s.path);
-                                // Record in installed index later by virtue of manifest path
-                                continue; // skip further processing for this entry
-                            } catch (Exception ex) {
-                                Constants.LOG.warn("Failed to rename {} -> {}, will re-download: {}", renamedFromPath, s.path, ex.toString());
-                                updates++; toFetch.add(s);
-                                // schedule deletion of old path if still exists after download
-                                if (!toDelete.contains(renamedFromPath)) toDelete.add(renamedFromPath);
-                            }
-                        } else if (matchedByName && renamedFromPath != null) {
-                            // Rename with changed content -> download new, delete old afterwards
-                            updates++; toFetch.add(s);
-                            if (!toDelete.contains(renamedFromPath)) toDelete.add(renamedFromPath);
-                            renameOrigins.put(s.path, renamedFromPath);
-                            Constants.LOG.info("Mod renamed {} -> {} (content changed)", renamedFromPath, s.path);
-                        } else if (modifiedByPlayer) {
-                            keeps++; Constants.LOG.info("Skip update (user modified): {}", s.path);
-                        } else {
-                            updates++; toFetch.add(s);
-                        }
-                    }
+            // Version match wins for mods (repacked jars of the same version are kept), otherwise compare content.
+            // sameContent() only hashes when sizes agree, so most changed files are decided without reading them.
+            boolean mismatch;
+            String serverVer = meForCurrent != null ? safe(meForCurrent.version) : "";
+            // A cached hash equal to the server's already proves the content, so the jar need not be read for its version
+            boolean knownSame = l != null && renamedFromPath == null && l.sha256 != null && l.sha256.equalsIgnoreCase(s.sha256);
+            String localVer = l != null && !knownSame && !serverVer.isEmpty() ? safe(modMeta.version(gameDir, l.path)) : "";
+            if (!localVer.isEmpty()) {
+                mismatch = !equalsVersionLoose(serverVer, localVer) || (renamedFromPath != null && !sameContent(l, s));
+            } else {
+                mismatch = l == null || !sameContent(l, s);
+            }
+
+            if (l == null) {
+                // Missing -> add
+                adds++; toFetch.add(s); addedPaths.add(s.path);
+            } else if (mismatch) {
+                if (isConfigPath) {
+                    if (!managedBefore) {
+                        if (overwriteUnmanagedConfigs) { updates++; toFetch.add(s); } else { keeps++; Constants.LOG.info("Keep unmanaged local config: {}", s.path); }
+                    } else if (!overwriteConfigMods && modifiedSinceInstall(l, s, prevSha)) { keeps++; Constants.LOG.info("Keep modified local config: {}", s.path); }
+                    else { updates++; toFetch.add(s); }
                 } else {
-                    // l != null and not mismatch
-                    if (matchedByName && renamedFromPath != null) {
-                        // Same content & version but path differs and we failed earlier rename (hash matched). Already handled above, but guard.
-                        adds++; toFetch.add(s); addedPaths.add(s.path);
+                    if (matchedByName && renamedFromPath != null && sameContent(l, s)) {
+                        // Pure rename with identical content: moved instead of downloaded when the plan is applied
+                        plan.renames.add(new UpdatePlan.Rename(renamedFromPath, s));
+                        renameOrigins.put(s.path, renamedFromPath);
+                        keeps++; // treat as keep (renamed)
+                        Constants.LOG.info("Mod renamed {} -> {} (hash unchanged)", renamedFromPath, s.path);
+                    } else if (matchedByName && renamedFromPath != null) {
+                        // Rename with changed content -> download new, delete old afterwards
+                        updates++; toFetch.add(s);
                         if (!toDelete.contains(renamedFromPath)) toDelete.add(renamedFromPath);
-                        Constants.LOG.info("Mod path changed {} -> {} (treat as add)", renamedFromPath, s.path);
+                        renameOrigins.put(s.path, renamedFromPath);
+                        Constants.LOG.info("Mod renamed {} -> {} (content changed)", renamedFromPath, s.path);
+                    } else if (managedBefore && modifiedSinceInstall(l, s, prevSha)) {
+                        keeps++; Constants.LOG.info("Skip update (user modified): {}", s.path);
                     } else {
-                        keeps++;
+                        updates++; toFetch.add(s);
                     }
                 }
-            }
-            // Determine deletes
-            for (var e2 : localMap.entrySet()) {
-                if (!serverMap.containsKey(e2.getKey())) {
-                    String rel = e2.getValue().path; boolean isConfigPath2 = isUnderFolder(rel, "config");
-                    if (isConfigPath2) { if (deleteExtraConfigs) toDelete.add(rel); else Constants.LOG.info("Skip delete (extra config kept): {}", rel); }
-                    else if (installedIndex.contains(rel)) toDelete.add(rel); else Constants.LOG.info("Skip delete (user file): {}", rel);
+            } else {
+                // l != null and not mismatch
+                if (matchedByName && renamedFromPath != null) {
+                    // Same content & version but path differs and we failed earlier rename (hash matched). Already handled above, but guard.
+                    adds++; toFetch.add(s); addedPaths.add(s.path);
+                    if (!toDelete.contains(renamedFromPath)) toDelete.add(renamedFromPath);
+                    Constants.LOG.info("Mod path changed {} -> {} (treat as add)", renamedFromPath, s.path);
+                } else {
+                    keeps++;
                 }
             }
+        }
+        findLocalSources(plan, local);
+        findDeltaBases(plan, paths, localById);
+        hashCache.save(gameDir);
+        modMeta.save(gameDir);
+        Constants.LOG.info("ModPackUpdater: mod metadata {} cached, {} read from jars in {} ms", modMeta.getHits(), modMeta.getMisses(), modMeta.getReadMillis());
+        Constants.LOG.info("ModPackUpdater: hashed {} of {} local files during diff ({} MiB at {} MiB/s per thread)",
+                hashedLazily.size(), local.size(), HashEngine.getBytesHashed() >> 20, String.format(Locale.ROOT, "%.1f", HashEngine.getThroughputMiBs()));
+        if (fingerprintShortcuts.get() > 0) Constants.LOG.info("ModPackUpdater: {} managed files confirmed unchanged by CRC32C fingerprint", fingerprintShortcuts.get());
+
+        // Determine deletes (ownership comes from the installed index, so extra files are never hashed)
+        for (int id = localIds.nextSetBit(0); id >= 0; id = localIds.nextSetBit(id + 1)) {
+            if (!serverIds.get(id)) {
+                String rel = localById[id].path; boolean isConfigPath2 = isUnderFolder(rel, "config");
+                if (isConfigPath2) { if (deleteExtraConfigs) toDelete.add(rel); else Constants.LOG.info("Skip delete (extra config kept): {}", rel); }
+                else if (installedIndex.contains(rel)) toDelete.add(rel); else Constants.LOG.info("Skip delete (user file): {}", rel);
+            }
+        }
 
-            if (toFetch.isEmpty() && toDelete.isEmpty()) { status("Already up to date"); Constants.LOG.info("ModPackUpdater: up to date ({} keep).", keeps); return true; }
+        plan.adds = adds; plan.updates = updates; plan.keeps = keeps;
+        plan.snapshot(gameDir);
+        if (checkOnly) {
+            List<String> addList = new ArrayList<>(addedPaths);
+            Set<String> addedSet = new HashSet<>(addedPaths);
+            List<String> updateList = new ArrayList<>();
+            for (Manifest.FileEntry fe : toFetch) { if (fe == null || fe.path == null) continue; if (!addedSet.contains(fe.path)) updateList.add(fe.path); }
+            for (UpdatePlan.Rename r : plan.renames) updateList.add(r.to.path);
 
-            if (checkOnly) {
-                status("Updates available");
-                Constants.LOG.info("ModPackUpdater: auto-check detected changes -> add={}, update={}, delete={}, keep={}", adds, updates, toDelete.size(), keeps);
-                if ((adds + updates + toDelete.size()) > 0 && !UpdaterService.areUpdatesDisabled()) {
-                    java.util.List<String> addList = new java.util.ArrayList<>(addedPaths);
-                    java.util.Set<String> addedSet = new java.util.HashSet<>(addedPaths);
-                    java.util.List<String> updateList = new java.util.ArrayList<>();
-                    for (Manifest.FileEntry fe : toFetch) { if (fe == null || fe.path == null) continue; if (!addedSet.contains(fe.path)) updateList.add(fe.path); }
-                    java.util.List<String> deleteList = new java.util.ArrayList<>(toDelete);
+            // Decorate mod paths with name and versions old->new
+            plan.addList = decorateListWithModInfo(addList, paths, serverModById, renameOrigins, true, false);
+            plan.updateList = decorateListWithModInfo(updateList, paths, serverModById, renameOrigins, false, false);
+            plan.deleteList = decorateListWithModInfo(new ArrayList<>(toDelete), paths, serverModById, renameOrigins, false, true);
+        }
+        return plan;
+    }
 
-                    // Decorate mod paths with name and versions old->new
-                    addList = decorateListWithModInfo(addList, serverModsByPath, localModInfoByPath, renameOrigins, true, false);
-                    updateList = decorateListWithModInfo(updateList, serverModsByPath, localModInfoByPath, renameOrigins, false, false);
-                    deleteList = decorateListWithModInfo(deleteList, serverModsByPath, localModInfoByPath, renameOrigins, false, true);
+    /**
+     * What the scan stage found; {@code roots} is null for a scan of all include folders. {@code journaled} if a change
+     * journal vouched that nothing outside the roots changed.
+     */
+    private static final class Scan {
+        final List<icu.nyat.kusunoki.modpackupdater.updater.dto.DiffRequest.FileEntry> local;
+        final Set<String> roots;
+        final boolean journaled;
+        final long nanos;
+        Scan(List<icu.nyat.kusunoki.modpackupdater.updater.dto.DiffRequest.FileEntry> local, Set<String> roots, boolean journaled, long nanos) {
+            this.local = local; this.roots = roots; this.journaled = journaled; this.nanos = nanos;
+        }
+    }
 
-                    UpdaterService.showUpdatePrompt(gameDir, cfg, addList, updateList, deleteList);
-                }
-                return true;
+    /**
+     * The local scan, run before the manifest is here. If planning against the last applied manifest is expected,
+     * only what that needs is stat'ed, as far as the installed index can tell: its files, plus whatever the last
+     * session's watcher saw change so the hash cache stays a complete snapshot for the next journal. Without a
+     * journal to vouch for the rest the cache is marked partial, and the next journal-based scan lists the folders.
+     */
+    private Scan scanStage(icu.nyat.kusunoki.modpackupdater.updater.util.PathFilter pathFilter) throws IOException {
+        long start = System.nanoTime();
+        if (!indexCovers(cfg.getPackId())) return new Scan(scanLocalState(pathFilter), null, false, System.nanoTime() - start);
+        LocalChangeWatcher.Journal journal = takeJournal();
+        boolean journaled = journal != null && journal.isUsableWith(hashCache, cfg);
+        Set<String> roots = new LinkedHashSet<>(installedIndex.files);
+        if (journaled) roots.addAll(journal.changedPaths(gameDir, cfg));
+        var local = icu.nyat.kusunoki.modpackupdater.updater.util.FileUtils.statLocalState(gameDir, pathFilter, roots.toArray(new String[0]), hashCache, cfg.getScanThreads());
+        return new Scan(local, roots, journaled, System.nanoTime() - start);
+    }
+
+    /** Starts the scan stage on {@link #STAGES}; with {@code load}, the caches it reads are loaded there first. */
+    private CompletableFuture<Scan> scanAsync(boolean load) {
+        icu.nyat.kusunoki.modpackupdater.updater.util.PathFilter pathFilter = cfg.getPathFilter();
+        stagesStart = System.nanoTime();
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                if (load) loadState();
+                return scanStage(pathFilter);
+            } catch (IOException e) {
+                throw new java.io.UncheckedIOException(e);
             }
+        }, STAGES);
+    }
 
-            status("Downloading files...");
-            Constants.LOG.info("ModPackUpdater: changes -> add={}, update={}, delete={}, keep={}", adds, updates, toDelete.size(), keeps);
-            int updatedCount = 0; int failedCount = 0; List<String> addedOk = new ArrayList<>(); List<String> updatedOk = new ArrayList<>();
-            Path workDir = gameDir.resolve("modpackupdater");
-            if (!toFetch.isEmpty()) {
-                Files.createDirectories(workDir);
-                status("Downloading files (" + toFetch.size() + ")...");
-                int parallel = 4; ExecutorService pool = Executors.newFixedThreadPool(parallel, r -> { Thread t = new Thread(r, "MPU-Download"); t.setDaemon(true); return t; });
-                try {
-                    List<Callable<Boolean>> tasks = new ArrayList<>(); List<String> fetchPaths = new ArrayList<>(); final int total = toFetch.size();
-                    for (int i = 0; i < toFetch.size(); i++) {
-                        Manifest.FileEntry s = toFetch.get(i); if (s == null || s.path == null) continue; final String p = s.path; final String sha = s.sha256; final int index = i; fetchPaths.add(p);
-                        tasks.add(() -> { status("Downloading (" + (index + 1) + "/" + total + "): " + p); boolean ok = downloadSingleWithRetry(api, p, sha, workDir); if (ok) status("Downloaded (" + (index + 1) + "/" + total + "): " + p); return ok; });
-                    }
-                    Set<String> addedSet = new HashSet<>(addedPaths); List<Future<Boolean>> results = pool.invokeAll(tasks);
-                    for (int i = 0; i < results.size(); i++) {
-                        Future<Boolean> f = results.get(i); String p = fetchPaths.get(i);
-                        try { if (Boolean.TRUE.equals(f.get())) { updatedCount++; if (addedSet.contains(p)) addedOk.add(p); else updatedOk.add(p); } else { failedCount++; } }
-                        catch (ExecutionException e) { failedCount++; Constants.LOG.warn("Download task failed: {}", e.getCause() != null ? e.getCause().toString() : e.toString()); }
-                    }
-                } finally { pool.shutdownNow(); }
+    /**
+     * After a failed manifest fetch: lets the scan stage finish and saves the hash cache, since the stage consumed
+     * the change journal and the cache now has to be the snapshot the watcher's next journal is relative to.
+     */
+    private void keepScanOf(CompletableFuture<Scan> scanning) {
+        try {
+            Scan s = await(scanning);
+            if (s.roots != null) hashCache.markPartial(s.roots, s.journaled);
+            hashCache.save(gameDir);
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            Constants.LOG.warn("Local scan failed too: {}", e.toString());
+        }
+    }
+
+    /** Joins a planning stage, rethrowing what it failed with. */
+    private static <T> T await(CompletableFuture<T> stage) throws IOException, InterruptedException {
+        try {
+            return stage.get();
+        } catch (ExecutionException e) {
+            Throwable c = e.getCause();
+            if (c instanceof java.io.UncheckedIOException) throw ((java.io.UncheckedIOException) c).getCause();
+            if (c instanceof IOException) throw (IOException) c;
+            if (c instanceof RuntimeException) throw (RuntimeException) c;
+            if (c instanceof Error) throw (Error) c;
+            throw new IOException(c);
+        }
+    }
+
+    /** Stats every included file, or only the changed paths if the previous session's watcher journal covers the complete cached snapshot. */
+    private List<icu.nyat.kusunoki.modpackupdater.updater.dto.DiffRequest.FileEntry> scanLocalState(icu.nyat.kusunoki.modpackupdater.updater.util.PathFilter pathFilter) throws IOException {
+        LocalChangeWatcher.Journal journal = takeJournal();
+        List<icu.nyat.kusunoki.modpackupdater.updater.dto.DiffRequest.FileEntry> local = journal != null && hashCache.isComplete() && journal.isUsableWith(hashCache, cfg)
+                ? journal.localState(gameDir, hashCache, cfg)
+                : icu.nyat.kusunoki.modpackupdater.updater.util.FileUtils.statLocalState(gameDir, pathFilter, hashCache, cfg.getScanThreads());
+        hashCache.markScanned();
+        return local;
+    }
+
+    /**
+     * The file list a server-side diff implies: Add/Update entries as sent, Keep entries with the hash we listed.
+     * Delete entries are local files the pack doesn't have, which the usual ownership rules handle. Null if the
+     * response can't stand in for the manifest (no operations, or a Keep we can't attach a hash to).
+     */
+    private static Manifest manifestFromDiff(icu.nyat.kusunoki.modpackupdater.updater.dto.DiffResponse resp,
+                                             List<icu.nyat.kusunoki.modpackupdater.updater.dto.DiffRequest.FileEntry> local) {
+        if (resp == null || resp.operations == null) return null;
+        Map<String, icu.nyat.kusunoki.modpackupdater.updater.dto.DiffRequest.FileEntry> sent = new HashMap<>();
+        for (var fe : local) sent.put(fe.path, fe);
+        Manifest m = new Manifest();
+        m.packId = resp.packId;
+        m.version = resp.version;
+        int changed = 0;
+        for (var op : resp.operations) {
+            if (op == null || op.path == null || op.op == null) continue;
+            String kind = op.op.toLowerCase(Locale.ROOT);
+            Manifest.FileEntry fe = new Manifest.FileEntry();
+            fe.path = op.path; fe.sha256 = op.sha256; fe.size = op.size;
+            if (kind.equals("keep")) {
+                var l = sent.get(op.path);
+                if (fe.sha256 == null) fe.sha256 = l != null ? l.sha256 : null;
+                if (fe.size == null && l != null) fe.size = l.size;
+            } else if (kind.equals("add") || kind.equals("update")) {
+                changed++;
+            } else {
+                continue;
             }
-            int deleted = 0; List<String> deletedOk = new ArrayList<>();
-            if (!toDelete.isEmpty()) {
-                status("Deleting removed files...");
-                for (String rel : toDelete) {
-                    if (!icu.nyat.kusunoki.modpackupdater.updater.util.FileUtils.isIncluded(rel, cfg.getIncludePaths())) continue;
-                    Path target = gameDir.resolve(rel).normalize(); if (!icu.nyat.kusunoki.modpackupdater.updater.util.FileUtils.isSafeChild(gameDir, target)) { Constants.LOG.warn("Skip unsafe delete path: {}", rel); continue; }
-                    try { boolean ok = Files.deleteIfExists(target); if (ok) { deleted++; deletedOk.add(rel); } }
-                    catch (IOException e) { Constants.LOG.warn("Failed to delete {}: {}", rel, e.toString()); synchronized (PendingOps.class) { PendingOps po = PendingOps.load(gameDir); if (!po.delete.contains(rel)) po.delete.add(rel); po.save(gameDir); } }
-                }
+            if (fe.sha256 == null || fe.sha256.isBlank()) {
+                Constants.LOG.warn("Server diff has no hash for {} ({}), ignoring it", op.path, op.op);
+                return null;
+            }
+            m.files.add(fe);
+        }
+        Constants.LOG.info("ModPackUpdater: server diff -> {} changed of {} files ({} {})", changed, m.files.size(), m.packId, m.version);
+        return m;
+    }
+
+    /**
+     * True if the installed index holds the last apply of {@code packId} with the current filter, so a plan can be made
+     * against it from the pack's own paths. Not when extra configs are deleted: those can only be found by listing.
+     */
+    private boolean indexCovers(String packId) {
+        return !installedIndex.files.isEmpty() && Objects.equals(installedIndex.packId, packId)
+                && cfg.getPathFilter().signature().equals(installedIndex.filter)
+                && !(cfg.isDeleteExtraConfigs() && hasIncludeFolder(cfg.getIncludePaths(), "config"));
+    }
+
+    /** {@code local} with the entries below {@code roots} added; paths already listed keep their entry. */
+    private List<icu.nyat.kusunoki.modpackupdater.updater.dto.DiffRequest.FileEntry> statMore(List<icu.nyat.kusunoki.modpackupdater.updater.dto.DiffRequest.FileEntry> local,
+                                                                                            java.util.Collection<String> roots, icu.nyat.kusunoki.modpackupdater.updater.util.PathFilter pathFilter) throws IOException {
+        Map<String, icu.nyat.kusunoki.modpackupdater.updater.dto.DiffRequest.FileEntry> byPath = new LinkedHashMap<>();
+        for (var fe : local) byPath.put(fe.path, fe);
+        for (var fe : icu.nyat.kusunoki.modpackupdater.updater.util.FileUtils.statLocalState(gameDir, pathFilter, roots.toArray(new String[0]), hashCache, cfg.getScanThreads())) byPath.putIfAbsent(fe.path, fe);
+        return new ArrayList<>(byPath.values());
+    }
+
+    /**
+     * Extends a partial scan stage result to every included file. With a journal and a complete hash cache the rest
+     * comes from the cached paths outside the stage's roots, as in {@link LocalChangeWatcher.Journal#localState};
+     * otherwise the include folders are listed, and what the stage already stat'ed is kept.
+     */
+    private List<icu.nyat.kusunoki.modpackupdater.updater.dto.DiffRequest.FileEntry> completeScan(Scan pre, icu.nyat.kusunoki.modpackupdater.updater.util.PathFilter pathFilter) throws IOException {
+        List<String> rest = new ArrayList<>();
+        boolean fromCache = pre.journaled && hashCache.isComplete();
+        if (fromCache) {
+            for (String rel : hashCache.paths()) {
+                if (pathFilter.matches(rel) && !LocalChangeWatcher.Journal.isUnderAny(rel, pre.roots)) rest.add(rel);
             }
-            if (!deletedOk.isEmpty()) Constants.LOG.info("Files deleted: {}", String.join(", ", deletedOk));
-            status("Finalizing...");
+        } else {
+            rest.addAll(Arrays.asList(pathFilter.roots()));
+        }
+        var local = statMore(pre.local, rest, pathFilter);
+        hashCache.markScanned();
+        Constants.LOG.info("ModPackUpdater: installed index is for another pack, extended the scan by {} {}",
+                rest.size(), fromCache ? "cached paths" : "include roots");
+        return local;
+    }
+
+    /**
+     * Local paths to stat instead of scanning the include folders, when the installed index holds the manifest of the
+     * last apply for this pack and filter: every server and installed path, plus the folder of each newly added mod so
+     * renamed jars are still recognised. Ids whose server hash differs from the applied one are set in {@code changed}.
+     * Null if a full scan is needed; extra configs, for one, can only be found by listing the folders.
+     */
+    private String[] manifestDeltaRoots(Manifest manifest, PathTable paths, Manifest.FileEntry[] server, BitSet serverIds,
+                                        Manifest.ModEntry[] serverModById, BitSet changed) {
+        if (!indexCovers(manifest != null ? manifest.packId : cfg.getPackId())) return null;
+        Set<String> roots = new LinkedHashSet<>();
+        for (int id = serverIds.nextSetBit(0); id >= 0; id = serverIds.nextSetBit(id + 1)) {
+            Manifest.FileEntry s = server[id];
+            roots.add(s.path);
+            String prev = installedIndex.getSha(s.path);
+            if (prev != null && prev.equalsIgnoreCase(s.sha256)) continue;
+            changed.set(id);
+            int slash = s.path.lastIndexOf('/');
+            if (prev == null && serverModById[id] != null && isUnderFolder(s.path, "mods") && slash > 0) roots.add(s.path.substring(0, slash));
+        }
+        for (String f : installedIndex.files) {
+            int id = paths.id(normKey(f));
+            if (id < 0 || !serverIds.get(id)) roots.add(f); // removed from the pack since the last apply
+        }
+        return roots.toArray(new String[0]);
+    }
+
+    /**
+     * The manifest through a conditional request, with only the included file entries; after a 304 the copy saved by
+     * an earlier run is used, or with {@code readSaved} false, not even read (null is returned).
+     */
+    private Manifest fetchManifest(ApiClient api, boolean readSaved) throws IOException, InterruptedException {
+        String key = UpdatePlan.configKey(cfg);
+        String[] v = manifestCache.validatorsFor(gameDir, key);
+        Path copy = ManifestCache.bodyTempFile(gameDir);
+        java.util.function.Predicate<String> include = cfg.getPathFilter()::matches;
+        ApiClient.ManifestResponse r = api.getManifest(v != null ? v[0] : null, v != null ? v[1] : null, copy, include);
+        if (r.notModified) {
+            Manifest saved = readSaved ? ManifestCache.readBody(gameDir, include) : null;
+            if (saved != null || !readSaved) {
+                manifestNotModified = true;
+                manifestValidators = manifestCache.validators();
+                return saved;
+            }
+            r = api.getManifest(null, null, copy, include);
+        }
+        manifestCache.store(gameDir, key, r.etag, r.lastModified);
+        manifestValidators = manifestCache.validators();
+        return r.manifest;
+    }
+
+    /**
+     * Local changes since the last run left the game directory matching the saved manifest, if none of them can
+     * matter to a plan: per the change journal, only paths the installed index has nothing at or below changed, and
+     * single-file include entries kept their recorded stat. Null if that can't be shown. The journal is consumed either
+     * way; on a short-circuit its changes are carried over into this session's watcher.
+     */
+    private Set<String> localChangesSinceUpToDate() {
+        if (!manifestCache.upToDate || !UpdatePlan.configKey(cfg).equals(manifestCache.configKey)) return null;
+        if (cfg.isDeleteExtraConfigs() && hasIncludeFolder(cfg.getIncludePaths(), "config")) return null; // extras matter then
+        // Without a watcher this session nothing records what changes from here on, so the next launch couldn't trust it
+        if (!cfg.isWatchLocalChanges() || !LocalChangeWatcher.isActive()) return null;
+        LocalChangeWatcher.Journal journal = takeJournal();
+        if (journal == null || !journal.isUsableWith(manifestCache.cacheGeneration, cfg)) return null;
+        Set<String> changed = journal.changedPaths(gameDir, cfg);
+        if (changed.isEmpty()) return changed;
+        installedIndex = InstalledIndex.load(gameDir);
+        for (String rel : changed) {
+            long[] was = manifestCache.rootStats.get(rel);
+            if (was != null && Arrays.equals(was, ManifestCache.stat(gameDir.resolve(rel)))) continue;
+            if (installedIndex.containsAnyUnder(rel)) return null;
+        }
+        return changed;
+    }
+
+    /**
+     * The previous session's change journal, deleted on first use so a hard kill before this session writes its own
+     * leaves none behind to be trusted again.
+     */
+    private LocalChangeWatcher.Journal takeJournal() {
+        if (!journalTaken) { journal = LocalChangeWatcher.consumeJournal(gameDir); journalTaken = true; }
+        return journal;
+    }
+
+    /** Records whether the game directory now matches the saved manifest, for the next launch's no-change check. */
+    private void rememberOutcome(UpdatePlan plan, boolean upToDate) {
+        String v = manifestCache.validators();
+        manifestCache.upToDate = upToDate && v != null && v.equals(plan.manifestValidators) && UpdatePlan.configKey(cfg).equals(manifestCache.configKey);
+        manifestCache.cacheGeneration = hashCache.getGeneration();
+        manifestCache.rootStats = ManifestCache.statRoots(gameDir, cfg.getPathFilter());
+        manifestCache.save(gameDir);
+    }
+
+    private boolean finish(ApiClient api, UpdatePlan plan) throws IOException, InterruptedException {
+        if (plan.isEmpty()) {
+            status("Already up to date"); Constants.LOG.info("ModPackUpdater: up to date ({} keep).", plan.keeps);
+            saveLearnedFingerprints(); rememberOutcome(plan, true);
+            return true;
+        }
+
+        if (checkOnly) {
+            status("Updates available");
+            Constants.LOG.info("ModPackUpdater: auto-check detected changes -> add={}, update={}, delete={}, rename={}, keep={}", plan.adds, plan.updates, plan.deletes.size(), plan.renames.size(), plan.keeps);
+            if (!UpdaterService.areUpdatesDisabled()) UpdaterService.showUpdatePrompt(gameDir, cfg, plan);
+            saveLearnedFingerprints(); rememberOutcome(plan, false);
+            return true;
+        }
+        return apply(api, plan);
+    }
+
+    private boolean apply(ApiClient api, UpdatePlan plan) throws IOException, InterruptedException {
+        rememberOutcome(plan, false); // in case this apply doesn't get to the end
+        List<Manifest.FileEntry> toFetch = new ArrayList<>(plan.fetches);
+        List<String> toDelete = new ArrayList<>(plan.deletes);
+        List<String> addedPaths = plan.addedPaths;
+        Set<String> addedSet = new HashSet<>(addedPaths);
+        deltaBases = plan.deltaBases;
+        icu.nyat.kusunoki.modpackupdater.updater.util.PathFilter pathFilter = cfg.getPathFilter();
+        int updatedCount = 0; int failedCount = 0; List<String> addedOk = new ArrayList<>(); List<String> updatedOk = new ArrayList<>();
+        Path workDir = gameDir.resolve("modpackupdater");
+        Files.createDirectories(workDir);
+
+        // Content we already have under another path is copied first, before renames and deletes move sources away
+        int reused = 0;
+        for (Iterator<Manifest.FileEntry> it = toFetch.iterator(); it.hasNext(); ) {
+            Manifest.FileEntry s = it.next();
+            String src = plan.localSources.get(s.path);
+            if (src == null || !copyLocal(src, s, workDir)) continue;
+            it.remove(); reused++; updatedCount++;
+            if (addedSet.contains(s.path)) addedOk.add(s.path); else updatedOk.add(s.path);
+        }
+        for (UpdatePlan.Rename r : plan.renames) {
             try {
-                installedIndex.setFromManifest( manifest != null ? manifest.packId : cfg.getPackId(), manifest != null ? manifest.version : "latest", serverFiles, cfg.getIncludePaths());
-                installedIndex.save(gameDir);
-            } catch (Exception ex) { Constants.LOG.warn("Failed to update installed index: {}", ex.toString()); }
+                Path from = gameDir.resolve(r.from).normalize();
+                Path to = gameDir.resolve(r.to.path).normalize();
+                Files.createDirectories(to.getParent());
+                Files.move(from, to);
+                hashCache.invalidate(r.from);
+                rememberHash(r.to.path, to, r.to.sha256);
+                Constants.LOG.info("Renamed mod file {} -> {} (hash unchanged)", r.from, r.to.path);
+            } catch (Exception ex) {
+                Constants.LOG.warn("Failed to rename {} -> {}, will copy or re-download: {}", r.from, r.to.path, ex.toString());
+                if (!copyLocal(r.from, r.to, workDir)) toFetch.add(r.to);
+                // schedule deletion of old path if still exists after download
+                if (!toDelete.contains(r.from)) toDelete.add(r.from);
+            }
+        }
+
+        status("Downloading files...");
+        Constants.LOG.info("ModPackUpdater: changes -> add={}, update={}, delete={}, rename={}, keep={}", plan.adds, plan.updates, toDelete.size(), plan.renames.size(), plan.keeps);
+        if (reused > 0) Constants.LOG.info("ModPackUpdater: {} files copied from identical local files instead of downloaded", reused);
+
+        // Entries sharing a SHA-256 are downloaded once; the others are copied from the first once it is in place
+        Map<String, Manifest.FileEntry> firstBySha = new HashMap<>();
+        List<Manifest.FileEntry[]> sameContent = new ArrayList<>(); // {downloaded entry, entry copied from it}
+        for (Iterator<Manifest.FileEntry> it = toFetch.iterator(); it.hasNext(); ) {
+            Manifest.FileEntry s = it.next();
+            if (s == null || s.path == null || s.sha256 == null || s.sha256.isBlank()) continue;
+            Manifest.FileEntry first = firstBySha.putIfAbsent(s.sha256.toLowerCase(Locale.ROOT), s);
+            if (first != null) { sameContent.add(new Manifest.FileEntry[]{ first, s }); it.remove(); }
+        }
+        Set<String> fetchedOk = new HashSet<>();
+        if (!toFetch.isEmpty()) {
+            status("Downloading files (" + toFetch.size() + ")...");
+            int parallel = 4; ExecutorService pool = Executors.newFixedThreadPool(parallel, r -> { Thread t = new Thread(r, "MPU-Download"); t.setDaemon(true); return t; });
             try {
-                List<String> modsAdded = new ArrayList<>(); for (String p : addedPaths) if (isUnderFolder(p, "mods")) modsAdded.add(fileName(p));
-                List<String> modsDeleted = new ArrayList<>(); for (String p : deletedOk) if (isUnderFolder(p, "mods")) modsDeleted.add(fileName(p));
-                if (!modsAdded.isEmpty()) { Constants.LOG.info("Mods added: {}", String.join(", ", modsAdded)); }
-                if (!modsDeleted.isEmpty()) { Constants.LOG.info("Mods deleted: {}", String.join(", ", modsDeleted)); }
-            } catch (Exception ignore) {}
-            if (!addedOk.isEmpty()) Constants.LOG.info("Files added: {}", String.join(", ", addedOk));
-            if (!updatedOk.isEmpty()) Constants.LOG.info("Files updated: {}", String.join(", ", updatedOk));
-            Constants.LOG.info("ModPackUpdater: update done -> {} add/update ok, {} failed, {} delete", updatedCount, failedCount, deleted);
-            boolean success = failedCount == 0; status(success ? "Update complete" : "Update finished with errors");
-            if (success) { UpdaterService.markUpdatedThisSession(); }
-            return success;
+                List<Callable<Boolean>> tasks = new ArrayList<>(); List<String> fetchPaths = new ArrayList<>(); final int total = toFetch.size();
+                for (int i = 0; i < toFetch.size(); i++) {
+                    Manifest.FileEntry s = toFetch.get(i); if (s == null || s.path == null) continue; final String p = s.path; final String sha = s.sha256; final int index = i; fetchPaths.add(p);
+                    tasks.add(() -> { status("Downloading (" + (index + 1) + "/" + total + "): " + p); boolean ok = downloadSingleWithRetry(api, p, sha, s.size, workDir); if (ok) status("Downloaded (" + (index + 1) + "/" + total + "): " + p); return ok; });
+                }
+                List<Future<Boolean>> results = pool.invokeAll(tasks);
+                for (int i = 0; i < results.size(); i++) {
+                    Future<Boolean> f = results.get(i); String p = fetchPaths.get(i);
+                    try { if (Boolean.TRUE.equals(f.get())) { updatedCount++; fetchedOk.add(p); if (addedSet.contains(p)) addedOk.add(p); else updatedOk.add(p); } else { failedCount++; } }
+                    catch (ExecutionException e) { failedCount++; Constants.LOG.warn("Download task failed: {}", e.getCause() != null ? e.getCause().toString() : e.toString()); }
+                }
+            } finally { pool.shutdownNow(); }
+        }
+        for (Manifest.FileEntry[] pair : sameContent) {
+            Manifest.FileEntry s = pair[1];
+            boolean ok = fetchedOk.contains(pair[0].path) && copyLocal(pair[0].path, s, workDir) || downloadSingleWithRetry(api, s.path, s.sha256, s.size, workDir);
+            if (ok) { updatedCount++; if (addedSet.contains(s.path)) addedOk.add(s.path); else updatedOk.add(s.path); } else { failedCount++; }
+        }
+        if (!sameContent.isEmpty()) Constants.LOG.info("ModPackUpdater: {} entries shared content with another entry and were fetched once", sameContent.size());
+        int deleted = 0; List<String> deletedOk = new ArrayList<>();
+        if (!toDelete.isEmpty()) {
+            status("Deleting removed files...");
+            for (String rel : toDelete) {
+                if (!pathFilter.matches(rel)) continue;
+                Path target = gameDir.resolve(rel).normalize(); if (!icu.nyat.kusunoki.modpackupdater.updater.util.FileUtils.isSafeChild(gameDir, target)) { Constants.LOG.warn("Skip unsafe delete path: {}", rel); continue; }
+                try { boolean ok = Files.deleteIfExists(target); hashCache.invalidate(rel); if (ok) { deleted++; deletedOk.add(rel); } }
+                catch (IOException e) { Constants.LOG.warn("Failed to delete {}: {}", rel, e.toString()); synchronized (PendingOps.class) { PendingOps po = PendingOps.load(gameDir); if (!po.delete.contains(rel)) po.delete.add(rel); po.save(gameDir); } }
+            }
+        }
+        if (!deletedOk.isEmpty()) Constants.LOG.info("Files deleted: {}", String.join(", ", deletedOk));
+        status("Finalizing...");
+        hashCache.save(gameDir);
+        try {
+            installedIndex.setFromManifest(plan.packId, plan.version, plan.serverFiles, pathFilter);
+            for (var lf : learnedFingerprints.entrySet()) installedIndex.recordFingerprint(lf.getKey(), lf.getValue()[0], lf.getValue()[1]);
+            installedIndex.save(gameDir);
+        } catch (Exception ex) { Constants.LOG.warn("Failed to update installed index: {}", ex.toString()); }
+        try {
+            List<String> modsAdded = new ArrayList<>(); for (String p : addedPaths) if (isUnderFolder(p, "mods")) modsAdded.add(fileName(p));
+            List<String> modsDeleted = new ArrayList<>(); for (String p : deletedOk) if (isUnderFolder(p, "mods")) modsDeleted.add(fileName(p));
+            if (!modsAdded.isEmpty()) { Constants.LOG.info("Mods added: {}", String.join(", ", modsAdded)); }
+            if (!modsDeleted.isEmpty()) { Constants.LOG.info("Mods deleted: {}", String.join(", ", modsDeleted)); }
+        } catch (Exception ignore) {}
+        if (!addedOk.isEmpty()) Constants.LOG.info("Files added: {}", String.join(", ", addedOk));
+        if (!updatedOk.isEmpty()) Constants.LOG.info("Files updated: {}", String.join(", ", updatedOk));
+        Constants.LOG.info("ModPackUpdater: update done -> {} add/update ok, {} failed, {} delete", updatedCount, failedCount, deleted);
+        boolean success = failedCount == 0; status(success ? "Update complete" : "Update finished with errors");
+        if (success) { UpdaterService.markUpdatedThisSession(); }
+        rememberOutcome(plan, success);
+        return success;
+    }
+
+    /**
+     * Local SHA-256, computed on first use when the scan had no cached value. A managed file whose CRC32C fingerprint
+     * still matches the installed index is taken to hold the installed content, so only changed files pay for SHA-256.
+     */
+    private String localSha(icu.nyat.kusunoki.modpackupdater.updater.dto.DiffRequest.FileEntry fe) {
+        if (fe.sha256 != null || !hashedLazily.add(fe.path)) return fe.sha256;
+        Path file = gameDir.resolve(fe.path);
+        try {
+            java.nio.file.attribute.BasicFileAttributes attrs = Files.readAttributes(file, java.nio.file.attribute.BasicFileAttributes.class);
+            long started = System.currentTimeMillis();
+            String prevSha = installedIndex.getSha(fe.path);
+            String fp = installedIndex.getFingerprint(fe.path);
+            if (prevSha != null && fp != null && InstalledIndex.fingerprintSize(fp) == attrs.size()
+                    && InstalledIndex.fingerprintCrc(fp).equals(HashEngine.crc32c(file))) {
+                fingerprintShortcuts.incrementAndGet();
+                fe.sha256 = prevSha.toLowerCase(Locale.ROOT);
+            } else {
+                HashEngine.Digests d = HashEngine.sha256AndCrc32c(file);
+                fe.sha256 = d.sha256;
+                if (prevSha != null && prevSha.equalsIgnoreCase(d.sha256)) {
+                    learnedFingerprints.put(fe.path, new String[]{ d.sha256, InstalledIndex.fingerprint(d.crc32c, attrs.size()) });
+                }
+            }
+            hashCache.store(fe.path, attrs, fe.sha256, started);
         } catch (Exception e) {
-            status("Update failed");
-            Constants.LOG.error("ModPackUpdater: update failed", e);
-            return false;
+            Constants.LOG.warn("Failed to hash {}: {}", fe.path, e.toString());
+        }
+        return fe.sha256;
+    }
+
+    /** Hashes the entries through {@link #localSha} on {@code scanThreads} workers; failures are logged per file. */
+    private void hashAll(List<icu.nyat.kusunoki.modpackupdater.updater.dto.DiffRequest.FileEntry> entries) {
+        if (entries.isEmpty()) return;
+        int threads = Math.min(entries.size(), cfg.getScanThreads() > 0 ? cfg.getScanThreads() : Math.max(1, Runtime.getRuntime().availableProcessors()));
+        long start = System.nanoTime();
+        if (threads < 2) {
+            for (var fe : entries) localSha(fe);
+        } else {
+            java.util.concurrent.atomic.AtomicInteger seq = new java.util.concurrent.atomic.AtomicInteger();
+            ForkJoinPool pool = new ForkJoinPool(threads, p -> {
+                ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+                t.setName("MPU-Hash-" + seq.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }, null, false);
+            try {
+                pool.submit(() -> entries.parallelStream().forEach(this::localSha)).join();
+            } finally {
+                pool.shutdownNow();
+            }
         }
+        Constants.LOG.info("ModPackUpdater: hashed {} local files on {} threads in {} ms", entries.size(), threads, (System.nanoTime() - start) / 1_000_000L);
+    }
+
+    private void saveLearnedFingerprints() {
+        if (learnedFingerprints.isEmpty()) return;
+        for (var lf : learnedFingerprints.entrySet()) installedIndex.recordFingerprint(lf.getKey(), lf.getValue()[0], lf.getValue()[1]);
+        installedIndex.save(gameDir);
+    }
+
+    /** True if the local file has the server's content; a size difference decides without hashing. */
+    private boolean sameContent(icu.nyat.kusunoki.modpackupdater.updater.dto.DiffRequest.FileEntry l, Manifest.FileEntry s) {
+        if (l.size != null && s.size != null && !l.size.equals(s.size)) return false;
+        String sha = localSha(l);
+        return sha != null && sha.equalsIgnoreCase(s.sha256);
+    }
+
+    /** True if a managed file no longer has the content we installed. */
+    private boolean modifiedSinceInstall(icu.nyat.kusunoki.modpackupdater.updater.dto.DiffRequest.FileEntry l, Manifest.FileEntry s, String prevSha) {
+        if (l == null || prevSha == null || prevSha.isBlank()) return false;
+        // Server entry unchanged since install but the size no longer matches it -> edited locally, no hash needed
+        if (prevSha.equalsIgnoreCase(s.sha256) && l.size != null && s.size != null && !l.size.equals(s.size)) return true;
+        String sha = localSha(l);
+        return sha != null && !sha.equalsIgnoreCase(prevSha);
     }
 
     private void status(String s) { if (listener != null) { try { listener.updateStatus(s); } catch (Exception ignored) {} } }
@@ -313,20 +907,69 @@ public class UpdateRunner implements Runnable {
         return isWindows ? n.toLowerCase(java.util.Locale.ROOT) : n;
     }
 
+    /** Local mod jars keyed by lowercase mod id and name; jar metadata is only read on the first lookup. */
+    private final class LocalModIndex {
+        private final List<icu.nyat.kusunoki.modpackupdater.updater.dto.DiffRequest.FileEntry> local;
+        private Map<String, icu.nyat.kusunoki.modpackupdater.updater.dto.DiffRequest.FileEntry> byId, byName;
+
+        LocalModIndex(List<icu.nyat.kusunoki.modpackupdater.updater.dto.DiffRequest.FileEntry> local) { this.local = local; }
+
+        icu.nyat.kusunoki.modpackupdater.updater.dto.DiffRequest.FileEntry find(Manifest.ModEntry me) {
+            if (byId == null) build();
+            icu.nyat.kusunoki.modpackupdater.updater.dto.DiffRequest.FileEntry alt = null;
+            if (me.id != null && !me.id.isBlank()) alt = byId.get(me.id.toLowerCase(Locale.ROOT));
+            if (alt == null && me.name != null && !me.name.isBlank()) alt = byName.get(me.name.toLowerCase(Locale.ROOT));
+            // Multi-loader mods share ids across loaders; a jar built for the other family is not a renamed copy
+            if (alt != null && !sameLoaderFamily(me.loader, modMeta.loader(gameDir, alt.path))) return null;
+            return alt;
+        }
+
+        private void build() {
+            byId = new HashMap<>(); byName = new HashMap<>();
+            for (var fe : local) {
+                if (fe == null || fe.path == null || !isUnderFolder(fe.path, "mods")) continue;
+                try {
+                    ModInfo mi = modMeta.info(gameDir, fe.path);
+                    if (mi == null) continue;
+                    if (mi.id != null && !mi.id.isBlank()) byId.putIfAbsent(mi.id.toLowerCase(Locale.ROOT), fe);
+                    if (mi.name != null && !mi.name.isBlank()) byName.putIfAbsent(mi.name.toLowerCase(Locale.ROOT), fe);
+                } catch (Exception ignored) {}
+            }
+            Constants.LOG.info("ModPackUpdater: indexed {} local mods by id for rename detection", byId.size());
+        }
+    }
+
+    /** False only if both loaders are known and belong to different families (Fabric/Quilt vs Forge/NeoForge). */
+    private static boolean sameLoaderFamily(String a, String b) {
+        if (a == null || a.isBlank() || b == null || b.isBlank()) return true;
+        return loaderFamily(a).equals(loaderFamily(b));
+    }
+
+    private static String loaderFamily(String loader) {
+        String l = loader.toLowerCase(Locale.ROOT);
+        switch (l) {
+            case "quilt": return "fabric"; // Quilt loads Fabric mods
+            case "neoforge": return "forge";
+            default: return l;
+        }
+    }
+
     private List<String> decorateListWithModInfo(List<String> paths,
-                                                 Map<String, Manifest.ModEntry> serverModsByPath,
-                                                 Map<String, ModInfo> localModInfoByPath,
+                                                 PathTable pathTable,
+                                                 Manifest.ModEntry[] serverModById,
                                                  Map<String,String> renameOrigins,
                                                  boolean isAdd,
                                                  boolean isDelete) {
         List<String> out = new ArrayList<>(paths.size());
         for (String p : paths) {
             if (p != null && isUnderFolder(p, "mods")) {
-                Manifest.ModEntry me = serverModsByPath.get(normKey(p));
+                int id = pathTable.id(normKey(p));
+                Manifest.ModEntry me = id >= 0 && id < serverModById.length ? serverModById[id] : null;
                 String name = me != null && me.name != null && !me.name.isBlank() ? me.name : fileName(p);
                 String newVer = me != null ? safe(me.version) : null;
                 String oldPath = renameOrigins.getOrDefault(p, p);
-                ModInfo localInfo = localModInfoByPath.get(oldPath);
+                // Local version is only read here, when the prompt shows it (cached per jar by modMeta)
+                ModInfo localInfo = isAdd && !renameOrigins.containsKey(p) ? null : modMeta.info(gameDir, oldPath);
                 String oldVer = localInfo != null ? localInfo.version : null;
                 if (isAdd && oldVer == null) oldVer = "?"; // Added mod had no previous version
                 if (isDelete) { newVer = "removed"; }
@@ -339,7 +982,72 @@ public class UpdateRunner implements Runnable {
         return out;
     }
 
-    private boolean downloadSingleWithRetry(ApiClient api, String relPath, String expectedSha, Path workDir) {
+    /**
+     * Records, for each file to fetch, a local file that already has its content. Known local hashes are used first;
+     * otherwise unhashed local files of the same size are hashed (once, then cached) as candidates.
+     */
+    private void findLocalSources(UpdatePlan plan, List<icu.nyat.kusunoki.modpackupdater.updater.dto.DiffRequest.FileEntry> local) {
+        if (plan.fetches.isEmpty()) return;
+        Map<String, String> bySha = new HashMap<>();
+        Map<Long, List<icu.nyat.kusunoki.modpackupdater.updater.dto.DiffRequest.FileEntry>> unhashedBySize = new HashMap<>();
+        for (var fe : local) {
+            if (fe == null || fe.path == null) continue;
+            if (fe.sha256 != null) bySha.putIfAbsent(fe.sha256.toLowerCase(Locale.ROOT), fe.path);
+            else if (fe.size != null) unhashedBySize.computeIfAbsent(fe.size, k -> new ArrayList<>(1)).add(fe);
+        }
+        for (Manifest.FileEntry s : plan.fetches) {
+            if (s == null || s.path == null || s.sha256 == null || s.sha256.isBlank()) continue;
+            String sha = s.sha256.toLowerCase(Locale.ROOT);
+            String src = bySha.get(sha);
+            if (src == null && s.size != null) {
+                List<icu.nyat.kusunoki.modpackupdater.updater.dto.DiffRequest.FileEntry> candidates = unhashedBySize.remove(s.size);
+                if (candidates != null) {
+                    for (var c : candidates) { String h = localSha(c); if (h != null) bySha.putIfAbsent(h.toLowerCase(Locale.ROOT), c.path); }
+                    src = bySha.get(sha);
+                }
+            }
+            if (src != null && !normKey(src).equals(normKey(s.path))) plan.localSources.put(s.path, src);
+        }
+    }
+
+    /** Records the local content SHA of larger updated files, so they can be patched instead of downloaded whole. */
+    private void findDeltaBases(UpdatePlan plan, PathTable paths, icu.nyat.kusunoki.modpackupdater.updater.dto.DiffRequest.FileEntry[] localById) {
+        Set<String> added = new HashSet<>(plan.addedPaths);
+        for (Manifest.FileEntry s : plan.fetches) {
+            if (s == null || s.path == null || s.sha256 == null || added.contains(s.path) || plan.localSources.containsKey(s.path)) continue;
+            if (s.size != null && s.size < DELTA_MIN_SIZE) continue;
+            int id = paths.id(normKey(s.path));
+            var l = id >= 0 ? localById[id] : null;
+            if (l == null || l.size == null || l.size < DELTA_MIN_SIZE) continue;
+            // A local hash not computed yet is assumed to be the installed content; a wrong guess fails verification
+            String from = l.sha256 != null ? l.sha256 : installedIndex.getSha(s.path);
+            if (from != null && !from.equalsIgnoreCase(s.sha256)) plan.deltaBases.put(s.path, from.toLowerCase(Locale.ROOT));
+        }
+    }
+
+    /** Copies a local file that should hold {@code to}'s content into place, verifying it; false if it can't be used. */
+    private boolean copyLocal(String fromRel, Manifest.FileEntry to, Path workDir) {
+        Path from = gameDir.resolve(fromRel).normalize();
+        Path dest = gameDir.resolve(to.path).normalize();
+        Path tmp = workDir.resolve(to.path + ".tmp").normalize();
+        if (!icu.nyat.kusunoki.modpackupdater.updater.util.FileUtils.isSafeChild(gameDir, from) || !icu.nyat.kusunoki.modpackupdater.updater.util.FileUtils.isSafeChild(gameDir, dest)) return false;
+        try {
+            Files.createDirectories(Objects.requireNonNull(tmp.getParent()));
+            Files.copy(from, tmp, StandardCopyOption.REPLACE_EXISTING);
+            if (!verifyShaIfProvided(tmp, to.path, to.sha256)) { Files.deleteIfExists(tmp); return false; }
+            Files.createDirectories(dest.getParent());
+            Files.move(tmp, dest, StandardCopyOption.REPLACE_EXISTING);
+            rememberHash(to.path, dest, to.sha256);
+            Constants.LOG.info("Copied {} from identical local file {}", to.path, fromRel);
+            return true;
+        } catch (Exception e) {
+            Constants.LOG.warn("Failed to copy {} -> {}, will download: {}", fromRel, to.path, e.toString());
+            try { Files.deleteIfExists(tmp); } catch (IOException ignore) {}
+            return false;
+        }
+    }
+
+    private boolean downloadSingleWithRetry(ApiClient api, String relPath, String expectedSha, Long expectedSize, Path workDir) {
         Path dest = gameDir.resolve(relPath).normalize();
         if (!icu.nyat.kusunoki.modpackupdater.updater.util.FileUtils.isSafeChild(gameDir, dest)) {
             Constants.LOG.warn("Skipping unsafe path: {}", relPath);
@@ -350,16 +1058,21 @@ public class UpdateRunner implements Runnable {
             Constants.LOG.warn("Failed to create directories for {}: {}", tmp, e.toString());
             return false;
         }
+        String deltaFrom = deltaBases.get(relPath);
+        if (deltaFrom != null && expectedSha != null && patchWithDelta(api, relPath, deltaFrom, expectedSha, dest, tmp)) return true;
+        if (deltaFrom != null && expectedSha != null && expectedSize != null && ZipSync.isArchive(relPath)
+                && syncZipEntries(api, relPath, expectedSha, expectedSize, dest, tmp)) return true;
         int attempts = 3;
         long baseDelayMs = 250;
         for (int i = 1; i <= attempts; i++) {
             try {
                 api.downloadFileToTemp(relPath, tmp);
-                if (!verifyShaIfProvided(tmp, expectedSha)) {
+                if (!verifyShaIfProvided(tmp, relPath, expectedSha)) {
                     throw new IOException("SHA256 mismatch for " + relPath);
                 }
                 Files.createDirectories(dest.getParent());
                 Files.move(tmp, dest, StandardCopyOption.REPLACE_EXISTING);
+                rememberHash(relPath, dest, expectedSha);
                 return true;
             } catch (Exception ex) {
                 if (i == attempts) {
@@ -390,11 +1103,70 @@ public class UpdateRunner implements Runnable {
         return false;
     }
 
-    private boolean verifyShaIfProvided(Path file, String expectedSha) throws IOException {
+    /** Tries to rebuild {@code dest} from a server delta against its current content; false falls back to a full download. */
+    private boolean patchWithDelta(ApiClient api, String relPath, String fromSha, String expectedSha, Path dest, Path tmp) {
+        try {
+            if (!Files.isRegularFile(dest) || !api.downloadDeltaToTemp(relPath, fromSha, expectedSha, dest, tmp)) return false;
+            if (!verifyShaIfProvided(tmp, relPath, expectedSha)) {
+                Files.deleteIfExists(tmp);
+                return false;
+            }
+            Files.move(tmp, dest, StandardCopyOption.REPLACE_EXISTING);
+            rememberHash(relPath, dest, expectedSha);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (Exception e) {
+            Constants.LOG.warn("Delta update of {} failed, downloading whole file: {}", relPath, e.toString());
+            try { Files.deleteIfExists(tmp); } catch (IOException ignore) {}
+            return false;
+        }
+    }
+
+    /** Rebuilds an archive from its unchanged local entries plus ranged reads of the changed ones; false falls back. */
+    private boolean syncZipEntries(ApiClient api, String relPath, String expectedSha, long expectedSize, Path dest, Path tmp) {
+        try {
+            if (!Files.isRegularFile(dest)) return false;
+            long start = System.nanoTime();
+            ZipSync.Result r = ZipSync.sync(dest, expectedSize, (from, to) -> api.openFileRange(relPath, from, to), tmp);
+            if (r == null) { Files.deleteIfExists(tmp); return false; }
+            if (!verifyShaIfProvided(tmp, relPath, expectedSha)) {
+                Files.deleteIfExists(tmp);
+                return false;
+            }
+            Files.move(tmp, dest, StandardCopyOption.REPLACE_EXISTING);
+            rememberHash(relPath, dest, expectedSha);
+            Constants.LOG.info("Rebuilt {} from local archive entries: {} bytes fetched, {} reused in {} ms",
+                    relPath, r.fetched, r.reused, (System.nanoTime() - start) / 1_000_000L);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (Exception e) {
+            Constants.LOG.warn("Entry-wise update of {} failed, downloading whole file: {}", relPath, e.toString());
+            try { Files.deleteIfExists(tmp); } catch (IOException ignore) {}
+            return false;
+        }
+    }
+
+    /** Records the verified hash of a file just moved into place; the stat is read now, after the move. */
+    private void rememberHash(String relPath, Path file, String sha) {
+        if (hashCache == null || sha == null || sha.isBlank()) return;
+        try {
+            hashCache.storeWritten(relPath.replace('\\', '/'), Files.readAttributes(file, java.nio.file.attribute.BasicFileAttributes.class), sha.toLowerCase(Locale.ROOT));
+        } catch (IOException e) {
+            hashCache.invalidate(relPath);
+        }
+    }
+
+    private boolean verifyShaIfProvided(Path file, String relPath, String expectedSha) throws IOException {
         if (expectedSha == null || expectedSha.isBlank()) return true;
         try {
-            String actual = icu.nyat.kusunoki.modpackupdater.updater.util.FileUtils.sha256(file);
+            HashEngine.Digests d = HashEngine.sha256AndCrc32c(file);
+            String actual = d.sha256;
             boolean ok = expectedSha.equalsIgnoreCase(actual);
+            if (ok) learnedFingerprints.put(relPath, new String[]{ actual, InstalledIndex.fingerprint(d.crc32c, Files.size(file)) });
             if (!ok) {
                 Constants.LOG.warn("Hash mismatch for {} expected={} actual={}", gameDir.relativize(file), expectedSha, actual);
             }
@@ -426,13 +1198,4 @@ public class UpdateRunner implements Runnable {
         if (t.startsWith("v") || t.startsWith("V")) t = t.substring(1);
         return t;
     }
-
-    private static String readLocalModVersion(Path file) {
-        try {
-            if (java.nio.file.Files.exists(file)) {
-                return ModMetadataUtils.readModVersion(file);
-            }
-        } catch (Exception ignored) {}
-        return null;
-    }
 }
@@ -25,6 +25,8 @@ public class UpdaterService {
                     Constants.LOG.info("ModPackUpdater: updates disabled for this session; skipping auto check.");
                     return;
                 }
+                // Start before the first scan so changes made between scan and watch can't be missed
+                LocalChangeWatcher.start(gameDir, cfg);
                 boolean clientEnv = isClientEnvironment();
                 Constants.LOG.info("ModPackUpdater: starting startup check for pack {}... (env={})", cfg.getPackId(), clientEnv ? "client" : "server");
                 // If client side -> checkOnly so we can prompt. If dedicated server -> apply immediately (no prompt UI available).
@@ -45,19 +47,21 @@ public class UpdaterService {
         public final List<String> adds;
         public final List<String> updates;
         public final List<String> deletes;
-        public PromptData(Path gameDir, Config cfg, List<String> adds, List<String> updates, List<String> deletes) {
-            this.gameDir = gameDir; this.cfg = cfg; this.adds = adds; this.updates = updates; this.deletes = deletes;
+        public final UpdatePlan plan; // applied as-is by "Update now" if still valid
+        public PromptData(Path gameDir, Config cfg, UpdatePlan plan) {
+            this.gameDir = gameDir; this.cfg = cfg; this.plan = plan;
+            this.adds = plan.getAddList(); this.updates = plan.getUpdateList(); this.deletes = plan.getDeleteList();
         }
     }
     private static volatile PromptData pendingPrompt;
 
-    public static void showUpdatePrompt(Path gameDir, Config cfg, List<String> adds, List<String> updates, List<String> deletes) {
+    public static void showUpdatePrompt(Path gameDir, Config cfg, UpdatePlan plan) {
         // Store as pending first (so mixin can pick it up on TitleScreen init)
-        pendingPrompt = new PromptData(gameDir, cfg, adds, updates, deletes);
+        pendingPrompt = new PromptData(gameDir, cfg, plan);
         try {
             Class<?> prompt = Class.forName("icu.nyat.kusunoki.modpackupdater.ui.UpdatePrompt");
-            Method m = prompt.getMethod("show", Path.class, Config.class, java.util.List.class, java.util.List.class, java.util.List.class);
-            m.invoke(null, gameDir, cfg, adds, updates, deletes);
+            Method m = prompt.getMethod("show", Path.class, Config.class, UpdatePlan.class);
+            m.invoke(null, gameDir, cfg, plan);
         } catch (Throwable t) {
             // ignore; mixin will consume pending later
         }
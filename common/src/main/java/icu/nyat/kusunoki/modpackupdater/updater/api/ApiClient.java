@@ -2,13 +2,18 @@ package icu.nyat.kusunoki.modpackupdater.updater.api;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
-import com.google.gson.reflect.TypeToken;
 import icu.nyat.kusunoki.modpackupdater.Constants;
 import icu.nyat.kusunoki.modpackupdater.updater.Config;
+import icu.nyat.kusunoki.modpackupdater.updater.dto.DiffRequest;
+import icu.nyat.kusunoki.modpackupdater.updater.dto.DiffResponse;
 import icu.nyat.kusunoki.modpackupdater.updater.dto.Manifest;
+import icu.nyat.kusunoki.modpackupdater.updater.util.DeltaPatch;
 
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.net.URI;
 import java.net.URLEncoder;
@@ -19,19 +24,31 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.Duration;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 public class ApiClient {
     private final String baseUrl;
     private final String packId;
     private final HttpClient http;
     private final Gson gson = new GsonBuilder().create();
+    private volatile boolean deltaUnsupported; // server has no delta endpoint; stop asking for this run
+    private volatile boolean rangeUnsupported; // server ignored a Range header; stop asking for this run
+    private volatile Boolean serverDiff; // server advertises the diff endpoint; null = not asked yet
 
     public ApiClient(Config cfg) {
         this.baseUrl = cfg.getBaseUrl();
         this.packId = cfg.getPackId();
-        this.http = HttpClient.newBuilder()
-                .connectTimeout(cfg.getTimeout())
-                .build();
+        this.http = HttpClientProvider.get(baseUrl, cfg.getTimeout());
+    }
+
+    private <T> HttpResponse<T> send(HttpRequest req, HttpResponse.BodyHandler<T> handler) throws IOException, InterruptedException {
+        HttpClientProvider.requestSent();
+        HttpResponse<T> resp = http.send(req, handler);
+        HttpClientProvider.responseReceived(resp.version());
+        return resp;
     }
 
     private static String url(String s) { return URLEncoder.encode(s, StandardCharsets.UTF_8); }
@@ -44,35 +61,282 @@ public class ApiClient {
                 .header("User-Agent", Constants.MOD_NAME + "/" + Constants.MOD_ID);
     }
 
+    /** GET of a JSON endpoint; these compress well, unlike the pack files, so a compressed transfer is offered. */
+    private HttpRequest.Builder jsonGet(String path) {
+        return baseGet(path).header("Accept-Encoding", "gzip, deflate");
+    }
+
+    /**
+     * The response body with its Content-Encoding undone while it is read (HttpClient leaves that to the caller).
+     * "deflate" is meant to be zlib-wrapped, but some servers send raw deflate; both are accepted.
+     */
+    private static InputStream decoded(HttpResponse<InputStream> resp) throws IOException {
+        String enc = resp.headers().firstValue("Content-Encoding").orElse("").trim().toLowerCase(Locale.ROOT);
+        InputStream raw = resp.body();
+        if (enc.isEmpty() || enc.equals("identity")) return raw;
+        if (enc.equals("gzip") || enc.equals("x-gzip")) return new GZIPInputStream(raw, 64 * 1024);
+        if (enc.equals("deflate")) {
+            BufferedInputStream in = new BufferedInputStream(raw, 64 * 1024);
+            in.mark(2);
+            int cmf = in.read(), flg = in.read();
+            in.reset();
+            boolean zlib = cmf >= 0 && flg >= 0 && (cmf & 0x0F) == 8 && ((cmf << 8) | flg) % 31 == 0;
+            Inflater inflater = new Inflater(!zlib);
+            return new InflaterInputStream(in, inflater, 64 * 1024) {
+                @Override public void close() throws IOException {
+                    try { super.close(); } finally { inflater.end(); }
+                }
+            };
+        }
+        raw.close();
+        throw new IOException("Unsupported Content-Encoding: " + enc);
+    }
+
+    private interface BodyParser<T> {
+        T parse(java.io.Reader in) throws IOException;
+    }
+
+    private <T> T readJson(HttpResponse<InputStream> resp, java.lang.reflect.Type type) throws IOException {
+        return readJson(resp, null, in -> gson.fromJson(in, type));
+    }
+
+    /**
+     * Parses a JSON response body as it arrives, copying the decoded JSON to {@code copy} if given. The rest of the
+     * body is drained so the connection can be reused.
+     */
+    private <T> T readJson(HttpResponse<InputStream> resp, OutputStream copy, BodyParser<T> parser) throws IOException {
+        try (InputStream in = decoded(resp)) {
+            InputStream src = copy != null ? new TeeInputStream(in, copy) : in;
+            T value = parser.parse(new InputStreamReader(src, StandardCharsets.UTF_8));
+            src.transferTo(OutputStream.nullOutputStream());
+            return value;
+        } catch (com.google.gson.JsonIOException e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            throw e;
+        }
+    }
+
+    /** Start of an error response body for the exception message. */
+    private static String errorBody(HttpResponse<InputStream> resp) {
+        try (InputStream in = decoded(resp)) {
+            return new String(in.readNBytes(2048), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            return "<" + e + ">";
+        }
+    }
+
+    private static String encodingOf(HttpResponse<?> resp) {
+        return resp.headers().firstValue("Content-Encoding").map(e -> ", " + e).orElse("");
+    }
+
+    /** Passes reads through while copying the bytes read to {@code copy}. */
+    private static final class TeeInputStream extends FilterInputStream {
+        private final OutputStream copy;
+        TeeInputStream(InputStream in, OutputStream copy) { super(in); this.copy = copy; }
+        @Override public int read() throws IOException {
+            int b = in.read();
+            if (b >= 0) copy.write(b);
+            return b;
+        }
+        @Override public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            if (n > 0) copy.write(b, off, n);
+            return n;
+        }
+        @Override public long skip(long n) throws IOException {
+            if (n <= 0) return 0;
+            int r = read(new byte[(int) Math.min(n, 8192)]);
+            return Math.max(r, 0);
+        }
+        @Override public boolean markSupported() { return false; }
+    }
+
     public Manifest getManifest() throws IOException, InterruptedException {
+        return getManifest(null, null, null, null).manifest;
+    }
+
+    /** The manifest with only the file entries whose path passes {@code include}; {@code p -> false} for metadata only. */
+    public Manifest getManifest(java.util.function.Predicate<String> include) throws IOException, InterruptedException {
+        return getManifest(null, null, null, include).manifest;
+    }
+
+    /** A manifest response; {@code manifest} is null when the server answered 304 Not Modified. */
+    public static final class ManifestResponse {
+        public final Manifest manifest;
+        public final boolean notModified;
+        public final String etag, lastModified;
+        ManifestResponse(Manifest manifest, boolean notModified, String etag, String lastModified) {
+            this.manifest = manifest; this.notModified = notModified; this.etag = etag; this.lastModified = lastModified;
+        }
+    }
+
+    /**
+     * Conditional manifest request with the validators of a saved copy (either may be null); the JSON, as received
+     * after decompression, is also written to {@code bodyCopy} if given. File entries are parsed as they arrive and
+     * only those passing {@code include} (null for all) are kept. A 200 carries the server's ETag and Last-Modified;
+     * without the latter, the manifest's createdAt stands in as an HTTP date.
+     */
+    public ManifestResponse getManifest(String etag, String lastModified, Path bodyCopy, java.util.function.Predicate<String> include) throws IOException, InterruptedException {
         String path = "/packs/" + url(packId) + "/manifest";
-        Constants.LOG.info("HTTP GET {}", path);
+        Constants.LOG.info("HTTP GET {}{}", path, etag != null || lastModified != null ? " (conditional)" : "");
         long start = System.nanoTime();
-        HttpRequest req = baseGet(path).build();
-        HttpResponse<String> resp = http.send(req, HttpResponse.BodyHandlers.ofString());
-        long tookMs = (System.nanoTime() - start) / 1_000_000L;
+        HttpRequest.Builder b = jsonGet(path);
+        if (etag != null) b.header("If-None-Match", etag);
+        if (lastModified != null) b.header("If-Modified-Since", lastModified);
+        HttpResponse<InputStream> resp = send(b.build(), HttpResponse.BodyHandlers.ofInputStream());
         int code = resp.statusCode();
-        Constants.LOG.info("HTTP {} {} in {} ms", code, path, tookMs);
-        if (code != 200) throw new IOException("Manifest failed: HTTP " + code + " body=" + resp.body());
-        return gson.fromJson(resp.body(), Manifest.class);
+        if (code == 304 && (etag != null || lastModified != null)) {
+            resp.body().close();
+            Constants.LOG.info("HTTP 304 {} in {} ms", path, (System.nanoTime() - start) / 1_000_000L);
+            return new ManifestResponse(null, true, etag, lastModified);
+        }
+        if (code != 200) throw new IOException("Manifest failed: HTTP " + code + " body=" + errorBody(resp));
+        Manifest m;
+        if (bodyCopy == null) {
+            m = readJson(resp, null, in -> ManifestReader.read(in, include));
+        } else {
+            try (OutputStream os = new java.io.BufferedOutputStream(Files.newOutputStream(bodyCopy), 64 * 1024)) {
+                m = readJson(resp, os, in -> ManifestReader.read(in, include));
+            }
+        }
+        long tookMs = (System.nanoTime() - start) / 1_000_000L;
+        Constants.LOG.info("HTTP {} {} in {} ms, {} files{}", code, path, tookMs, m != null && m.files != null ? m.files.size() : 0, encodingOf(resp));
+        String lm = resp.headers().firstValue("Last-Modified").orElse(null);
+        if (lm == null && m != null) lm = httpDate(m.createdAt);
+        return new ManifestResponse(m, false, resp.headers().firstValue("ETag").orElse(null), lm);
+    }
+
+    private static String httpDate(String isoInstant) {
+        if (isoInstant == null) return null;
+        try {
+            return java.time.format.DateTimeFormatter.RFC_1123_DATE_TIME.format(java.time.OffsetDateTime.parse(isoInstant).atZoneSameInstant(java.time.ZoneOffset.UTC));
+        } catch (java.time.format.DateTimeParseException e) {
+            return null;
+        }
     }
 
     /** Fetch mods metadata list (separate endpoint as per updated API). */
     public java.util.List<Manifest.ModEntry> getMods() throws IOException, InterruptedException {
+        return getMods(null);
+    }
+
+    /** Mods metadata of the paths passing {@code include} (null for all), filtered while the list is parsed. */
+    public java.util.List<Manifest.ModEntry> getMods(java.util.function.Predicate<String> include) throws IOException, InterruptedException {
         String path = "/packs/" + url(packId) + "/mods";
         Constants.LOG.info("HTTP GET {}", path);
         long start = System.nanoTime();
-        HttpRequest req = baseGet(path).build();
-        HttpResponse<String> resp = http.send(req, HttpResponse.BodyHandlers.ofString());
-        long tookMs = (System.nanoTime() - start) / 1_000_000L;
+        HttpRequest req = jsonGet(path).build();
+        HttpResponse<InputStream> resp = send(req, HttpResponse.BodyHandlers.ofInputStream());
         int code = resp.statusCode();
-        Constants.LOG.info("HTTP {} {} in {} ms", code, path, tookMs);
-        if (code != 200) throw new IOException("Mods list failed: HTTP " + code + " body=" + resp.body());
-        java.lang.reflect.Type type = new TypeToken<java.util.List<Manifest.ModEntry>>(){}.getType();
-        java.util.List<Manifest.ModEntry> list = gson.fromJson(resp.body(), type);
+        if (code != 200) throw new IOException("Mods list failed: HTTP " + code + " body=" + errorBody(resp));
+        java.util.List<Manifest.ModEntry> list = readJson(resp, null, in -> ManifestReader.readMods(in, include));
+        long tookMs = (System.nanoTime() - start) / 1_000_000L;
+        Constants.LOG.info("HTTP {} {} in {} ms{}", code, path, tookMs, encodingOf(resp));
         return list != null ? list : java.util.List.of();
     }
 
+    /** True if {@code /health} lists the "diff" feature; asked once per client, any failure counts as no. */
+    public boolean supportsServerDiff() throws InterruptedException {
+        Boolean known = serverDiff;
+        if (known != null) return known;
+        boolean ok = false;
+        try {
+            HttpResponse<String> resp = send(baseGet("/health").build(), HttpResponse.BodyHandlers.ofString());
+            if (resp.statusCode() == 200) {
+                com.google.gson.JsonElement features = com.google.gson.JsonParser.parseString(resp.body()).getAsJsonObject().get("features");
+                if (features != null && features.isJsonArray()) {
+                    for (com.google.gson.JsonElement f : features.getAsJsonArray()) if ("diff".equals(f.getAsString())) ok = true;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            Constants.LOG.info("Server capability check failed: {}", e.toString());
+        }
+        serverDiff = ok;
+        return ok;
+    }
+
+    /**
+     * Sends the local file listing and returns the server's operations for it, or null if the server turns the
+     * request down (404/405/501); the caller then fetches the manifest and diffs locally.
+     */
+    public DiffResponse postDiff(DiffRequest request) throws IOException, InterruptedException {
+        String path = "/packs/" + url(packId) + "/diff";
+        Constants.LOG.info("HTTP POST {} ({} files)", path, request.files.size());
+        long start = System.nanoTime();
+        HttpRequest req = jsonGet(path)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(gson.toJson(request)))
+                .build();
+        HttpResponse<InputStream> resp = send(req, HttpResponse.BodyHandlers.ofInputStream());
+        int code = resp.statusCode();
+        if (code == 404 || code == 405 || code == 501) {
+            resp.body().close();
+            Constants.LOG.info("HTTP {} {} in {} ms", code, path, (System.nanoTime() - start) / 1_000_000L);
+            serverDiff = false;
+            return null;
+        }
+        if (code != 200) throw new IOException("Diff failed: HTTP " + code + " body=" + errorBody(resp));
+        DiffResponse out = readJson(resp, DiffResponse.class);
+        Constants.LOG.info("HTTP {} {} in {} ms{}", code, path, (System.nanoTime() - start) / 1_000_000L, encodingOf(resp));
+        return out;
+    }
+
+    /**
+     * Requests a patch from the file content with SHA-256 {@code fromSha} to {@code toSha} and applies it to
+     * {@code base}, writing {@code targetFile}. Returns false when no patch is offered (204 or a 404 with a body), or
+     * the server has no delta endpoint (405, 501, or a 404 with an empty body; not asked again this run); the caller
+     * then downloads the whole file. The result must still be verified by the caller.
+     */
+    public boolean downloadDeltaToTemp(String relativePath, String fromSha, String toSha, Path base, Path targetFile) throws IOException, InterruptedException {
+        if (deltaUnsupported) return false;
+        String path = "/packs/" + url(packId) + "/delta?path=" + url(relativePath) + "&from=" + url(fromSha) + "&to=" + url(toSha);
+        Constants.LOG.info("HTTP GET {}", path);
+        long start = System.nanoTime();
+        HttpRequest req = baseGet(path)
+                .header("Accept", "application/x-mpu-delta")
+                .build();
+        HttpResponse<InputStream> resp = send(req, HttpResponse.BodyHandlers.ofInputStream());
+        int code = resp.statusCode();
+        if (code != 200) {
+            boolean emptyBody;
+            try (InputStream is = resp.body()) { emptyBody = is.read() < 0; }
+            // A 404 that explains itself is about this file; a bare one is a server without the endpoint
+            if (code == 405 || code == 501 || code == 404 && emptyBody) deltaUnsupported = true;
+            Constants.LOG.info("HTTP {} {}: no delta, downloading whole file", code, path);
+            return false;
+        }
+        Files.createDirectories(targetFile.getParent());
+        long size;
+        try (InputStream is = resp.body()) {
+            size = DeltaPatch.apply(base, is, targetFile);
+        }
+        long tookMs = (System.nanoTime() - start) / 1_000_000L;
+        long patchLen = resp.headers().firstValueAsLong("Content-Length").orElse(-1L);
+        Constants.LOG.info("Patched {} ({} bytes from a {} byte delta) in {} ms", relativePath, size, patchLen, tookMs);
+        return true;
+    }
+
+    /** Bytes {@code [start, end)} of a pack file via a Range request; null if the server does not honour ranges. */
+    public InputStream openFileRange(String relativePath, long start, long end) throws IOException, InterruptedException {
+        if (rangeUnsupported) return null;
+        String path = "/packs/" + url(packId) + "/file?path=" + url(relativePath);
+        HttpRequest req = baseGet(path)
+                .header("Accept", "application/octet-stream")
+                .header("Range", "bytes=" + start + "-" + (end - 1))
+                .build();
+        HttpResponse<InputStream> resp = send(req, HttpResponse.BodyHandlers.ofInputStream());
+        int code = resp.statusCode();
+        if (code == 206) {
+            String cr = resp.headers().firstValue("Content-Range").orElse("");
+            if (cr.startsWith("bytes " + start + "-" + (end - 1) + "/")) return resp.body();
+        }
+        resp.body().close();
+        if (code == 200 || code == 206) rangeUnsupported = true; // whole body or a different range than asked for
+        else throw new IOException("Range request failed: HTTP " + code + " for " + relativePath);
+        Constants.LOG.info("HTTP {} {}: ranges not supported, downloading whole files", code, path);
+        return null;
+    }
+
     public long downloadFileToTemp(String relativePath, Path targetFile) throws IOException, InterruptedException {
         String path = "/packs/" + url(packId) + "/file?path=" + url(relativePath);
         Constants.LOG.info("HTTP GET {}", path);
@@ -80,7 +344,7 @@ public class ApiClient {
         HttpRequest req = baseGet(path)
                 .header("Accept", "application/octet-stream")
                 .build();
-        HttpResponse<InputStream> resp = http.send(req, HttpResponse.BodyHandlers.ofInputStream());
+        HttpResponse<InputStream> resp = send(req, HttpResponse.BodyHandlers.ofInputStream());
         int code = resp.statusCode();
         if (code != 200) {
             long tookMs = (System.nanoTime() - start) / 1_000_000L;
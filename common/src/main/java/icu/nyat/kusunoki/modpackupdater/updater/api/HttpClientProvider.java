@@ -0,0 +1,49 @@
+package icu.nyat.kusunoki.modpackupdater.updater.api;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One {@link HttpClient} per process (per protocol and connect timeout, in practice one) shared by every
+ * {@link ApiClient}, so the version check, the update runs and the config screen reuse pooled keep-alive connections
+ * instead of each paying for a TCP and TLS handshake. Over HTTPS, HTTP/2 is preferred, letting many small downloads
+ * multiplex over a few connections; servers without it are spoken to over HTTP/1.1 as before. Plain {@code http://}
+ * servers get HTTP/1.1 directly: asking for HTTP/2 there only adds an {@code Upgrade: h2c} attempt to every request.
+ */
+public final class HttpClientProvider {
+    private static final Map<String, HttpClient> CLIENTS = new ConcurrentHashMap<>();
+    private static final AtomicLong REQUESTS = new AtomicLong();
+    private static final AtomicLong HTTP2_RESPONSES = new AtomicLong();
+
+    private HttpClientProvider() {}
+
+    /** The shared client for requests to {@code baseUrl}. */
+    public static HttpClient get(String baseUrl, Duration connectTimeout) {
+        boolean tls = baseUrl != null && baseUrl.trim().toLowerCase(Locale.ROOT).startsWith("https:");
+        HttpClient.Version version = tls ? HttpClient.Version.HTTP_2 : HttpClient.Version.HTTP_1_1;
+        return CLIENTS.computeIfAbsent(version + " " + connectTimeout, k -> HttpClient.newBuilder()
+                .version(version)
+                .connectTimeout(connectTimeout)
+                .build());
+    }
+
+    /** Counts a request about to be sent. */
+    static void requestSent() { REQUESTS.incrementAndGet(); }
+
+    /** Counts the protocol a response came back over. */
+    static void responseReceived(HttpClient.Version version) {
+        if (version == HttpClient.Version.HTTP_2) HTTP2_RESPONSES.incrementAndGet();
+    }
+
+    public static long getRequests() { return REQUESTS.get(); }
+    public static long getHttp2Responses() { return HTTP2_RESPONSES.get(); }
+
+    /** One-line summary for the log. */
+    public static String stats() {
+        return REQUESTS.get() + " requests, " + HTTP2_RESPONSES.get() + " over HTTP/2";
+    }
+}
@@ -0,0 +1,136 @@
+package icu.nyat.kusunoki.modpackupdater.updater.api;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import icu.nyat.kusunoki.modpackupdater.updater.dto.Manifest;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Reads manifest and mods-list JSON token by token from a stream, keeping only the entries whose path passes
+ * {@code include} (null keeps all). Neither the body nor a JSON tree is held in memory, and an excluded entry is
+ * dropped as soon as its path is read: the rest of the object is skipped, so with the usual
+ * {@code path, sha256, size} order its hash is never allocated either.
+ */
+public final class ManifestReader {
+    private static final Gson GSON = new Gson(); // for the small nested objects
+
+    private ManifestReader() {}
+
+    /** The manifest in {@code in}, or null for an empty body or JSON null. */
+    public static Manifest read(Reader in, Predicate<String> include) throws IOException {
+        JsonReader r = new JsonReader(in);
+        try {
+            if (isEmpty(r)) return null;
+            Manifest m = new Manifest();
+            r.beginObject();
+            while (r.hasNext()) {
+                switch (r.nextName()) {
+                    case "packId": m.packId = string(r); break;
+                    case "version": m.version = string(r); break;
+                    case "displayName": m.displayName = string(r); break;
+                    case "mcVersion": m.mcVersion = string(r); break;
+                    case "loader": m.loader = GSON.fromJson(r, Manifest.Loader.class); break;
+                    case "files": m.files = files(r, include); break;
+                    case "mods": m.mods = mods(r, include); break;
+                    case "createdAt": m.createdAt = string(r); break;
+                    case "channel": m.channel = string(r); break;
+                    case "description": m.description = string(r); break;
+                    default: r.skipValue();
+                }
+            }
+            r.endObject();
+            return m;
+        } catch (IllegalStateException | NumberFormatException e) {
+            throw new JsonSyntaxException(e); // wrong token type, as Gson reports it
+        }
+    }
+
+    /** A mods list ({@code GET /mods}), or null for an empty body or JSON null. */
+    public static List<Manifest.ModEntry> readMods(Reader in, Predicate<String> include) throws IOException {
+        JsonReader r = new JsonReader(in);
+        try {
+            return isEmpty(r) ? null : mods(r, include);
+        } catch (IllegalStateException | NumberFormatException e) {
+            throw new JsonSyntaxException(e);
+        }
+    }
+
+    private static boolean isEmpty(JsonReader r) throws IOException {
+        try {
+            if (r.peek() != JsonToken.NULL) return false;
+        } catch (EOFException empty) {
+            return true;
+        }
+        r.nextNull();
+        return true;
+    }
+
+    private static List<Manifest.FileEntry> files(JsonReader r, Predicate<String> include) throws IOException {
+        if (r.peek() == JsonToken.NULL) { r.nextNull(); return null; }
+        List<Manifest.FileEntry> out = new ArrayList<>();
+        r.beginArray();
+        while (r.hasNext()) {
+            if (r.peek() == JsonToken.NULL) { r.nextNull(); continue; }
+            Manifest.FileEntry fe = new Manifest.FileEntry();
+            boolean keep = true;
+            r.beginObject();
+            while (r.hasNext()) {
+                String name = r.nextName();
+                if (!keep) { r.skipValue(); continue; }
+                switch (name) {
+                    case "path": fe.path = string(r); keep = include == null || fe.path != null && include.test(fe.path); break;
+                    case "sha256": fe.sha256 = string(r); break;
+                    case "size":
+                        if (r.peek() == JsonToken.NULL) r.nextNull(); else fe.size = r.nextLong();
+                        break;
+                    default: r.skipValue();
+                }
+            }
+            r.endObject();
+            if (keep && (include == null || fe.path != null)) out.add(fe);
+        }
+        r.endArray();
+        return out;
+    }
+
+    private static List<Manifest.ModEntry> mods(JsonReader r, Predicate<String> include) throws IOException {
+        if (r.peek() == JsonToken.NULL) { r.nextNull(); return null; }
+        List<Manifest.ModEntry> out = new ArrayList<>();
+        r.beginArray();
+        while (r.hasNext()) {
+            if (r.peek() == JsonToken.NULL) { r.nextNull(); continue; }
+            Manifest.ModEntry me = new Manifest.ModEntry();
+            boolean keep = true;
+            r.beginObject();
+            while (r.hasNext()) {
+                String name = r.nextName();
+                if (!keep) { r.skipValue(); continue; }
+                switch (name) {
+                    case "path": me.path = string(r); keep = include == null || me.path != null && include.test(me.path); break;
+                    case "id": me.id = string(r); break;
+                    case "version": me.version = string(r); break;
+                    case "name": me.name = string(r); break;
+                    case "loader": me.loader = string(r); break;
+                    default: r.skipValue();
+                }
+            }
+            r.endObject();
+            if (keep && (include == null || me.path != null)) out.add(me);
+        }
+        r.endArray();
+        return out;
+    }
+
+    private static String string(JsonReader r) throws IOException {
+        if (r.peek() == JsonToken.NULL) { r.nextNull(); return null; }
+        return r.nextString();
+    }
+}
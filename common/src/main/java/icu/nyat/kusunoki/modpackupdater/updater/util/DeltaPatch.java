@@ -0,0 +1,96 @@
+package icu.nyat.kusunoki.modpackupdater.updater.util;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Applies a binary delta served by {@code GET /packs/{packId}/delta} (see CLIENT.md): a stream of COPY/ADD
+ * instructions in the spirit of VCDIFF that rebuilds the new file from ranges of the old one plus literal bytes.
+ *
+ * <pre>
+ * int    magic "MPUD"
+ * byte   format (1)
+ * varint target size
+ * ops:   0 END | 1 COPY varint offset, varint length | 2 ADD varint length, bytes
+ * </pre>
+ * Varints are unsigned LEB128. The result is only trusted after the caller checks it against the manifest SHA-256.
+ */
+public final class DeltaPatch {
+    public static final int MAGIC = 0x4D505544; // "MPUD"
+    public static final int FORMAT = 1;
+    public static final int OP_END = 0, OP_COPY = 1, OP_ADD = 2;
+
+    private DeltaPatch() {}
+
+    /** Writes {@code target} from {@code base} and the patch stream; returns the target size. */
+    public static long apply(Path base, InputStream patchStream, Path target) throws IOException {
+        DataInputStream in = new DataInputStream(patchStream);
+        if (in.readInt() != MAGIC) throw new IOException("Not a delta patch");
+        int format = in.readUnsignedByte();
+        if (format != FORMAT) throw new IOException("Unsupported delta format " + format);
+        long targetSize = readVarLong(in);
+        long written = 0;
+        byte[] buf = new byte[64 * 1024];
+        try (FileChannel src = FileChannel.open(base, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            long baseSize = src.size();
+            while (true) {
+                int op = in.readUnsignedByte();
+                if (op == OP_END) break;
+                if (op == OP_COPY) {
+                    long offset = readVarLong(in), length = readVarLong(in);
+                    if (offset > baseSize || length > baseSize - offset || length > targetSize - written) throw new IOException("Delta COPY out of range");
+                    long done = 0;
+                    while (done < length) {
+                        long n = src.transferTo(offset + done, length - done, out);
+                        if (n <= 0) throw new EOFException("Base file shorter than expected");
+                        done += n;
+                    }
+                    written += length;
+                } else if (op == OP_ADD) {
+                    long length = readVarLong(in);
+                    if (length > targetSize - written) throw new IOException("Delta ADD past target size");
+                    long left = length;
+                    while (left > 0) {
+                        int n = (int) Math.min(buf.length, left);
+                        in.readFully(buf, 0, n);
+                        ByteBuffer bb = ByteBuffer.wrap(buf, 0, n);
+                        while (bb.hasRemaining()) out.write(bb);
+                        left -= n;
+                    }
+                    written += length;
+                } else {
+                    throw new IOException("Unknown delta op " + op);
+                }
+            }
+        } catch (IOException e) {
+            try { Files.deleteIfExists(target); } catch (IOException ignored) {}
+            throw e;
+        }
+        if (written != targetSize) {
+            Files.deleteIfExists(target);
+            throw new IOException("Delta produced " + written + " bytes, expected " + targetSize);
+        }
+        return written;
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long v = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            v |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                if (v < 0) throw new IOException("Delta varint out of range");
+                return v;
+            }
+        }
+        throw new IOException("Delta varint too long");
+    }
+}
@@ -1,76 +1,48 @@
 package icu.nyat.kusunoki.modpackupdater.updater.util;
 
-import icu.nyat.kusunoki.modpackupdater.Constants;
+import icu.nyat.kusunoki.modpackupdater.updater.HashCache;
 import icu.nyat.kusunoki.modpackupdater.updater.dto.DiffRequest;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
-import java.security.DigestInputStream;
-import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.*;
 
 public class FileUtils {
 
     public static List<DiffRequest.FileEntry> computeLocalState(Path gameDir, String[] includePaths) throws IOException {
-        List<DiffRequest.FileEntry> list = new ArrayList<>();
-        Set<Path> roots = new HashSet<>();
-        List<Path> singleFiles = new ArrayList<>();
-        for (String inc : includePaths) {
-            if (inc == null || inc.isBlank()) continue;
-            Path p = gameDir.resolve(inc).normalize();
-            if (!isSafeChild(gameDir, p)) continue;
-            if (Files.isDirectory(p)) {
-                roots.add(p);
-            } else if (Files.isRegularFile(p)) {
-                singleFiles.add(p);
-            }
-        }
-        for (Path root : roots) {
-            Files.walkFileTree(root, new SimpleFileVisitor<>() {
-                @Override
-                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-                    if (!attrs.isRegularFile()) return FileVisitResult.CONTINUE;
-                    String rel = gameDir.relativize(file).toString().replace('\\', '/');
-                    try {
-                        String sha = sha256(file);
-                        DiffRequest.FileEntry fe = new DiffRequest.FileEntry(rel, sha, attrs.size());
-                        list.add(fe);
-                    } catch (Exception e) {
-                        Constants.LOG.warn("Failed to hash {}: {}", rel, e.toString());
-                    }
-                    return FileVisitResult.CONTINUE;
-                }
-            });
-        }
-        // Also include explicitly listed single files
-        for (Path f : singleFiles) {
-            String rel = gameDir.relativize(f).toString().replace('\\', '/');
-            try {
-                long size = Files.size(f);
-                String sha = sha256(f);
-                list.add(new DiffRequest.FileEntry(rel, sha, size));
-            } catch (Exception e) {
-                Constants.LOG.warn("Failed to hash {}: {}", rel, e.toString());
-            }
-        }
-        return list;
+        return computeLocalState(gameDir, includePaths, null);
     }
 
+    /** Scans and hashes included files; when a cache is given, files with an unchanged stat tuple reuse the cached SHA-256. */
+    public static List<DiffRequest.FileEntry> computeLocalState(Path gameDir, String[] includePaths, HashCache cache) throws IOException {
+        return computeLocalState(gameDir, includePaths, cache, 0);
+    }
+
+    /** As above, spreading traversal and hashing over {@code threads} workers (0 = one per CPU). Sorted by path. */
+    public static List<DiffRequest.FileEntry> computeLocalState(Path gameDir, String[] includePaths, HashCache cache, int threads) throws IOException {
+        PathFilter filter = PathFilter.compile(includePaths);
+        return new LocalScanner(gameDir, filter, cache, threads, true).scan(filter.roots());
+    }
+
+    /**
+     * Lists files matching {@code filter} with their sizes without reading them. Only entries with a valid hash cache
+     * entry carry a SHA-256; callers hash the rest on demand via {@link #sha256(Path, String, HashCache)}.
+     */
+    public static List<DiffRequest.FileEntry> statLocalState(Path gameDir, PathFilter filter, HashCache cache, int threads) throws IOException {
+        return statLocalState(gameDir, filter, filter.roots(), cache, threads);
+    }
+
+    /** As above, walking only below {@code roots} (relative paths of files or folders). */
+    public static List<DiffRequest.FileEntry> statLocalState(Path gameDir, PathFilter filter, String[] roots, HashCache cache, int threads) throws IOException {
+        return new LocalScanner(gameDir, filter, cache, threads, false).scan(roots);
+    }
+
+    /** Prefer {@link PathFilter#matches} with a filter compiled once; this compiles the rules on every call. */
     public static boolean isIncluded(String relativePath, String[] includePaths) {
-        String norm = relativePath.replace('\\', '/');
-        for (String inc : includePaths) {
-            if (inc == null || inc.isBlank()) continue;
-            String prefix = inc.replace('\\', '/');
-            if (!prefix.endsWith("/")) prefix += "/";
-            if (norm.startsWith(prefix) || norm.equals(inc)) return true;
-        }
-        return false;
+        return PathFilter.compile(includePaths).matches(relativePath);
     }
 
     public static boolean isSafeChild(Path parent, Path child) {
@@ -79,15 +51,23 @@ public class FileUtils {
         return p.toAbsolutePath().normalize().startsWith(base);
     }
 
+    static String cachedSha256(Path file, String rel, BasicFileAttributes attrs, HashCache cache) throws IOException, NoSuchAlgorithmException {
+        if (cache == null) return sha256(file);
+        String sha = cache.lookup(rel, attrs);
+        if (sha != null) return sha;
+        long started = System.currentTimeMillis();
+        sha = sha256(file);
+        cache.store(rel, attrs, sha, started);
+        return sha;
+    }
+
+    /** Hashes {@code gameDir/rel}, going through the cache when one is given. */
+    public static String sha256(Path gameDir, String rel, HashCache cache) throws IOException, NoSuchAlgorithmException {
+        Path file = gameDir.resolve(rel);
+        return cachedSha256(file, rel, Files.readAttributes(file, BasicFileAttributes.class), cache);
+    }
+
     public static String sha256(Path file) throws IOException, NoSuchAlgorithmException {
-        MessageDigest md = MessageDigest.getInstance("SHA-256");
-        try (InputStream in = Files.newInputStream(file); DigestInputStream dis = new DigestInputStream(in, md)) {
-            byte[] buf = new byte[8192];
-            while (dis.read(buf) != -1) { /* read */ }
-        }
-        byte[] digest = md.digest();
-        StringBuilder sb = new StringBuilder();
-        for (byte b : digest) sb.append(String.format(Locale.ROOT, "%02x", b));
-        return sb.toString();
+        return HashEngine.sha256(file);
     }
 }
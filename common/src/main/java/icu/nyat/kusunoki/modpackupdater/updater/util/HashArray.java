@@ -0,0 +1,59 @@
+package icu.nyat.kusunoki.modpackupdater.updater.util;
+
+import java.util.Arrays;
+
+/**
+ * SHA-256 values by {@link PathTable} id, packed as four longs each (32 bytes per path instead of a 64-char hex
+ * string). A slot whose value is not known, or was not a 64-digit hex string, compares unequal to everything.
+ */
+public final class HashArray {
+    private long[] words;
+    private boolean[] known;
+
+    public HashArray(int capacity) {
+        words = new long[Math.max(1, capacity) * 4];
+        known = new boolean[Math.max(1, capacity)];
+    }
+
+    /** Stores the hash given as hex for {@code id}; null or malformed input leaves the slot unknown. */
+    public void set(int id, String hex) {
+        ensure(id);
+        known[id] = false;
+        if (hex == null || hex.length() != 64) return;
+        for (int w = 0; w < 4; w++) {
+            long v = 0;
+            for (int i = w * 16, end = i + 16; i < end; i++) {
+                int d = Character.digit(hex.charAt(i), 16);
+                if (d < 0) return;
+                v = v << 4 | d;
+            }
+            words[id * 4 + w] = v;
+        }
+        known[id] = true;
+    }
+
+    public boolean isKnown(int id) { return id < known.length && known[id]; }
+
+    /** True if both slots are known and hold the same hash. */
+    public boolean same(int id, HashArray other, int otherId) {
+        if (!isKnown(id) || !other.isKnown(otherId)) return false;
+        int a = id * 4, b = otherId * 4;
+        return words[a] == other.words[b] && words[a + 1] == other.words[b + 1]
+                && words[a + 2] == other.words[b + 2] && words[a + 3] == other.words[b + 3];
+    }
+
+    /** Writes the 32 hash bytes of {@code id} into {@code out}; the slot must be known. */
+    public void copyBytes(int id, byte[] out) {
+        for (int w = 0; w < 4; w++) {
+            long v = words[id * 4 + w];
+            for (int i = 7; i >= 0; i--) { out[w * 8 + i] = (byte) v; v >>>= 8; }
+        }
+    }
+
+    private void ensure(int id) {
+        if (id < known.length) return;
+        int cap = Math.max(id + 1, known.length * 2);
+        known = Arrays.copyOf(known, cap);
+        words = Arrays.copyOf(words, cap * 4);
+    }
+}
@@ -0,0 +1,136 @@
+package icu.nyat.kusunoki.modpackupdater.updater.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32C;
+
+/**
+ * SHA-256 file hashing fed straight from a {@link FileChannel}: small and medium files are read into a per-thread
+ * direct buffer, large files are digested from memory-mapped regions. Each thread reuses one digest instance.
+ * A CRC32C can be computed alongside (or instead of) SHA-256 as a cheap fingerprint for local change detection.
+ */
+public final class HashEngine {
+    private HashEngine() {}
+
+    private static final int BUFFER_SIZE = 1 << 20; // 1 MiB direct buffer per hashing thread
+    private static final long MMAP_THRESHOLD = 64L << 20; // map files of 64 MiB and above
+    private static final long MMAP_CHUNK = 256L << 20;    // map at most 256 MiB at a time
+    // Mapped regions keep the file open on Windows until GC, which would block replacing mods we just hashed
+    private static final boolean MMAP_ENABLED = !System.getProperty("os.name", "").toLowerCase(Locale.ROOT).contains("win");
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    });
+    private static final ThreadLocal<ByteBuffer> BUFFER = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(BUFFER_SIZE));
+    private static final ThreadLocal<char[]> HEX_CHARS = ThreadLocal.withInitial(() -> new char[64]);
+
+    private static final LongAdder bytesHashed = new LongAdder();
+    private static final LongAdder nanosHashing = new LongAdder();
+
+    /** Lower-hex SHA-256 of the file's contents. */
+    public static String sha256(Path file) throws IOException {
+        return digest(file, true, false).sha256;
+    }
+
+    /** CRC32C of the file's contents (hardware accelerated on current JDKs), as 8 lower-hex chars. */
+    public static String crc32c(Path file) throws IOException {
+        return digest(file, false, true).crc32c;
+    }
+
+    /** SHA-256 and CRC32C of the file in a single read. */
+    public static Digests sha256AndCrc32c(Path file) throws IOException {
+        return digest(file, true, true);
+    }
+
+    public static final class Digests {
+        public final String sha256; // null if not requested
+        public final String crc32c; // null if not requested
+        Digests(String sha256, String crc32c) { this.sha256 = sha256; this.crc32c = crc32c; }
+    }
+
+    private static Digests digest(Path file, boolean sha, boolean crc) throws IOException {
+        long start = System.nanoTime();
+        MessageDigest md = sha ? SHA256.get() : null;
+        CRC32C crc32c = crc ? new CRC32C() : null;
+        if (md != null) md.reset();
+        long total = 0;
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = ch.size();
+            if (MMAP_ENABLED && size >= MMAP_THRESHOLD) {
+                for (long pos = 0; pos < size; pos += MMAP_CHUNK) {
+                    MappedByteBuffer region = ch.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(MMAP_CHUNK, size - pos));
+                    total += region.remaining();
+                    update(region, md, crc32c);
+                }
+            } else {
+                ByteBuffer buf = BUFFER.get();
+                buf.clear();
+                int n;
+                while ((n = ch.read(buf)) >= 0) {
+                    if (n == 0 && buf.hasRemaining()) continue;
+                    buf.flip();
+                    total += buf.remaining();
+                    update(buf, md, crc32c);
+                    buf.clear();
+                }
+            }
+        } catch (IOException e) {
+            if (md != null) md.reset();
+            throw e;
+        }
+        Digests d = new Digests(md != null ? toHex(md.digest()) : null, crc32c != null ? crcHex(crc32c.getValue()) : null);
+        if (md != null) {
+            // Throughput figures describe SHA-256 work only
+            bytesHashed.add(total);
+            nanosHashing.add(System.nanoTime() - start);
+        }
+        return d;
+    }
+
+    private static void update(ByteBuffer data, MessageDigest md, CRC32C crc) {
+        if (crc != null) crc.update(md != null ? data.duplicate() : data);
+        if (md != null) md.update(data);
+    }
+
+    private static String crcHex(long v) {
+        char[] out = new char[8];
+        for (int i = 7; i >= 0; i--) { out[i] = HEX[(int) (v & 0x0F)]; v >>>= 4; }
+        return new String(out);
+    }
+
+    /** Lower-hex encoding without per-byte formatting; reuses a per-thread scratch array. */
+    public static String toHex(byte[] bytes) {
+        char[] out = bytes.length == 32 ? HEX_CHARS.get() : new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            int v = bytes[i] & 0xFF;
+            out[i * 2] = HEX[v >>> 4];
+            out[i * 2 + 1] = HEX[v & 0x0F];
+        }
+        return new String(out, 0, bytes.length * 2);
+    }
+
+    /** Total bytes digested by this process so far. */
+    public static long getBytesHashed() { return bytesHashed.sum(); }
+
+    /**
+     * Per-thread throughput in MiB/s: bytes hashed over the time all hashing threads spent on them, summed. A scan
+     * hashing on several threads at once reports the speed of one thread, not the combined rate.
+     */
+    public static double getThroughputMiBs() {
+        long nanos = nanosHashing.sum();
+        return nanos > 0 ? (bytesHashed.sum() / 1024.0 / 1024.0) / (nanos / 1_000_000_000.0) : 0.0;
+    }
+}
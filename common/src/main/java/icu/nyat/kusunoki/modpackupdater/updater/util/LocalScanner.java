@@ -0,0 +1,162 @@
+package icu.nyat.kusunoki.modpackupdater.updater.util;
+
+import icu.nyat.kusunoki.modpackupdater.Constants;
+import icu.nyat.kusunoki.modpackupdater.updater.HashCache;
+import icu.nyat.kusunoki.modpackupdater.updater.dto.DiffRequest;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Parallel local scan: directory listing and hashing run as fork/join tasks on a dedicated work-stealing pool,
+ * so large folders keep every worker busy. Results are sorted by relative path so the output is deterministic.
+ */
+public final class LocalScanner {
+    private final Path gameDir;
+    private final PathFilter filter;
+    private final HashCache cache;
+    private final int parallelism;
+    private final boolean hash;
+
+    /**
+     * @param filter files it rejects are skipped and directories it rules out are never listed
+     * @param hash when false only stats files; entries carry a SHA-256 only if the cache still holds a valid one,
+     *             leaving the rest to be hashed on demand (see {@link FileUtils#sha256(Path, String, HashCache)})
+     */
+    public LocalScanner(Path gameDir, PathFilter filter, HashCache cache, int threads, boolean hash) {
+        this.gameDir = gameDir;
+        this.filter = filter;
+        this.cache = cache;
+        this.parallelism = threads > 0 ? threads : Math.max(1, Runtime.getRuntime().availableProcessors());
+        this.hash = hash;
+    }
+
+    /** Walks the given relative roots (files or folders, "" = game directory), keeping what the filter matches. */
+    public List<DiffRequest.FileEntry> scan(String[] rootPaths) throws IOException {
+        List<Path> roots = new ArrayList<>();
+        for (String r : rootPaths) {
+            if (r == null) continue;
+            Path p = gameDir.resolve(r).normalize();
+            if (!FileUtils.isSafeChild(gameDir, p)) continue;
+            if (Files.isDirectory(p) ? filter.shouldDescend(rel(p)) : Files.isRegularFile(p) && filter.matches(rel(p))) roots.add(p);
+        }
+        if (roots.isEmpty()) return new ArrayList<>();
+
+        AtomicInteger seq = new AtomicInteger();
+        ForkJoinPool pool = new ForkJoinPool(parallelism, p -> {
+            ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+            t.setName("MPU-Scan-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }, null, false);
+        try {
+            List<DiffRequest.FileEntry> found = pool.invoke(new RootsTask(roots));
+            // Overlapping include paths (e.g. "mods" and "mods/extra") must not produce duplicates
+            Map<String, DiffRequest.FileEntry> uniq = new LinkedHashMap<>();
+            for (DiffRequest.FileEntry fe : found) uniq.putIfAbsent(fe.path, fe);
+            List<DiffRequest.FileEntry> out = new ArrayList<>(uniq.values());
+            out.sort(Comparator.comparing(fe -> fe.path));
+            return out;
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private String rel(Path file) {
+        return gameDir.relativize(file).toString().replace('\\', '/');
+    }
+
+    private final class RootsTask extends RecursiveTask<List<DiffRequest.FileEntry>> {
+        private static final long serialVersionUID = 1L;
+        private final transient List<Path> roots;
+        RootsTask(List<Path> roots) { this.roots = roots; }
+
+        @Override
+        protected List<DiffRequest.FileEntry> compute() {
+            List<RecursiveTask<List<DiffRequest.FileEntry>>> tasks = new ArrayList<>();
+            for (Path root : roots) {
+                if (Files.isDirectory(root)) {
+                    tasks.add(new DirTask(root));
+                } else {
+                    try {
+                        tasks.add(new HashTask(root, Files.readAttributes(root, BasicFileAttributes.class)));
+                    } catch (IOException e) {
+                        Constants.LOG.warn("Failed to hash {}: {}", rel(root), e.toString());
+                    }
+                }
+            }
+            return forkAndJoin(tasks);
+        }
+    }
+
+    private final class DirTask extends RecursiveTask<List<DiffRequest.FileEntry>> {
+        private static final long serialVersionUID = 1L;
+        private final transient Path dir;
+        DirTask(Path dir) { this.dir = dir; }
+
+        @Override
+        protected List<DiffRequest.FileEntry> compute() {
+            List<RecursiveTask<List<DiffRequest.FileEntry>>> tasks = new ArrayList<>();
+            try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir)) {
+                for (Path child : ds) {
+                    // Same semantics as Files.walkFileTree without FOLLOW_LINKS: symlinks are never traversed or hashed
+                    BasicFileAttributes attrs = Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                    // Excluded and ignored subtrees (dot-directories, exclude patterns) are pruned here, never listed or hashed
+                    if (attrs.isDirectory()) { if (filter.shouldDescend(rel(child))) tasks.add(new DirTask(child)); }
+                    else if (attrs.isRegularFile() && filter.matches(rel(child))) tasks.add(new HashTask(child, attrs));
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return forkAndJoin(tasks);
+        }
+    }
+
+    private final class HashTask extends RecursiveTask<List<DiffRequest.FileEntry>> {
+        private static final long serialVersionUID = 1L;
+        private final transient Path file;
+        private final transient BasicFileAttributes attrs;
+        HashTask(Path file, BasicFileAttributes attrs) { this.file = file; this.attrs = attrs; }
+
+        @Override
+        protected List<DiffRequest.FileEntry> compute() {
+            String rel = rel(file);
+            if (!hash) {
+                String sha = cache != null ? cache.lookup(rel, attrs) : null;
+                return List.of(new DiffRequest.FileEntry(rel, sha, attrs.size()));
+            }
+            try {
+                String sha = FileUtils.cachedSha256(file, rel, attrs, cache);
+                return List.of(new DiffRequest.FileEntry(rel, sha, attrs.size()));
+            } catch (Exception e) {
+                Constants.LOG.warn("Failed to hash {}: {}", rel, e.toString());
+                return List.of();
+            }
+        }
+    }
+
+    private static List<DiffRequest.FileEntry> forkAndJoin(List<RecursiveTask<List<DiffRequest.FileEntry>>> tasks) {
+        if (tasks.isEmpty()) return List.of();
+        // Fork all but the first, run the first inline, then join in reverse fork order (LIFO keeps stealing cheap)
+        for (int i = 1; i < tasks.size(); i++) tasks.get(i).fork();
+        List<DiffRequest.FileEntry> out = new ArrayList<>(tasks.get(0).invoke());
+        for (int i = tasks.size() - 1; i >= 1; i--) out.addAll(tasks.get(i).join());
+        return out;
+    }
+}
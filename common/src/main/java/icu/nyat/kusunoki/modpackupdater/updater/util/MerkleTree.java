@@ -0,0 +1,188 @@
+package icu.nyat.kusunoki.modpackupdater.updater.util;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Merkle tree over relative paths and their SHA-256: a file node hashes to its content SHA, a directory node to the
+ * SHA-256 of its sorted children ({@code name, kind, hash}). Each top-level entry (an include folder such as
+ * {@code mods}, or a single file like {@code options.txt}) is a root, so two trees are compared folder by folder
+ * and only subtrees whose hashes differ are descended into.
+ *
+ * <p>A file with an unknown hash makes every directory above it unknown; unknown never equals anything.
+ */
+public final class MerkleTree {
+    private final Node root = new Node(null, -1);
+
+    private static final class Node {
+        final byte[] sha; // file content hash; null for directories
+        final int id; // PathTable id of a file built from a table, -1 otherwise
+        TreeMap<String, Node> children; // null for files
+        byte[] hash;
+
+        Node(byte[] sha, int id) { this.sha = sha; this.id = id; }
+        boolean isDir() { return children != null; }
+    }
+
+    private MerkleTree() {
+        root.children = new TreeMap<>();
+    }
+
+    /** Builds a tree from relative path -> SHA-256 (null = not known). Paths should be normalized alike on both sides. */
+    public static MerkleTree build(Map<String, String> shaByPath) {
+        MerkleTree t = new MerkleTree();
+        for (Map.Entry<String, String> e : shaByPath.entrySet()) t.insert(e.getKey(), fromHex(e.getValue()), -1);
+        seal(t.root, newDigest(), new byte[64]);
+        return t;
+    }
+
+    /** Builds a tree over the table paths whose ids are set in {@code ids}; leaves remember their id for {@link #diffIds}. */
+    public static MerkleTree build(PathTable paths, HashArray shas, BitSet ids) {
+        MerkleTree t = new MerkleTree();
+        for (int id = ids.nextSetBit(0); id >= 0; id = ids.nextSetBit(id + 1)) {
+            byte[] sha = null;
+            if (shas.isKnown(id)) shas.copyBytes(id, sha = new byte[32]);
+            t.insert(paths.path(id), sha, id);
+        }
+        seal(t.root, newDigest(), new byte[64]);
+        return t;
+    }
+
+    private void insert(String path, byte[] sha, int id) {
+        Node n = root;
+        int start = 0;
+        while (true) {
+            int end = path.indexOf('/', start);
+            if (end < 0) {
+                n.children.put(path.substring(start), new Node(sha, id));
+                return;
+            }
+            String seg = path.substring(start, end);
+            Node next = n.children.get(seg);
+            if (next == null || !next.isDir()) {
+                next = new Node(null, -1);
+                next.children = new TreeMap<>();
+                n.children.put(seg, next);
+            }
+            n = next;
+            start = end + 1;
+        }
+    }
+
+    private static byte[] seal(Node n, MessageDigest md, byte[] hexScratch) {
+        if (!n.isDir()) return n.hash = n.sha;
+        boolean known = true;
+        for (Node c : n.children.values()) if (seal(c, md, hexScratch) == null) known = false;
+        if (!known) return n.hash = null;
+        md.reset();
+        for (Map.Entry<String, Node> c : n.children.entrySet()) {
+            md.update(c.getKey().getBytes(StandardCharsets.UTF_8));
+            md.update((byte) 0);
+            md.update((byte) (c.getValue().isDir() ? 'd' : 'f'));
+            md.update(hexAscii(c.getValue().hash, hexScratch)); // hashed as lower hex, as roots are reported
+            md.update((byte) '\n');
+        }
+        return n.hash = md.digest();
+    }
+
+    /** Root hash per top-level entry (null where some file hash below is unknown), in name order. */
+    public Map<String, String> roots() {
+        Map<String, String> out = new LinkedHashMap<>();
+        for (Map.Entry<String, Node> c : root.children.entrySet()) out.put(c.getKey(), c.getValue().hash != null ? HashEngine.toHex(c.getValue().hash) : null);
+        return out;
+    }
+
+    /**
+     * Paths of files that are missing on one side or whose hashes differ or are unknown. Subtrees with equal hashes
+     * are skipped without visiting them.
+     */
+    public static Set<String> diff(MerkleTree a, MerkleTree b) {
+        Set<String> out = new HashSet<>();
+        diff(a.root, b.root, "", out, null);
+        return out;
+    }
+
+    /** Like {@link #diff}, for trees built from a {@link PathTable}: the ids of differing files, no paths built. */
+    public static BitSet diffIds(MerkleTree a, MerkleTree b) {
+        BitSet out = new BitSet();
+        diff(a.root, b.root, null, null, out);
+        return out;
+    }
+
+    /** Like {@link #diffIds(MerkleTree, MerkleTree)}, leaving out the top-level entries named in {@code skipRoots}. */
+    public static BitSet diffIds(MerkleTree a, MerkleTree b, Set<String> skipRoots) {
+        BitSet out = new BitSet();
+        Set<String> names = new TreeSet<>(a.root.children.keySet());
+        names.addAll(b.root.children.keySet());
+        for (String name : names) {
+            if (!skipRoots.contains(name)) diff(a.root.children.get(name), b.root.children.get(name), null, null, out);
+        }
+        return out;
+    }
+
+    /** The top-level entry (root name) a relative path belongs to. */
+    public static String rootOf(String path) {
+        int i = path.indexOf('/');
+        return i < 0 ? path : path.substring(0, i);
+    }
+
+    private static void diff(Node a, Node b, String prefix, Set<String> out, BitSet outIds) {
+        if (a != null && b != null && a.hash != null && Arrays.equals(a.hash, b.hash) && a.isDir() == b.isDir()) return;
+        if (a == null || b == null || !a.isDir() || !b.isDir()) {
+            // File vs file, or kinds differ / one side missing: every file below either node differs
+            if (a != null) collect(a, prefix, out, outIds);
+            if (b != null) collect(b, prefix, out, outIds);
+            return;
+        }
+        Set<String> names = new TreeSet<>(a.children.keySet());
+        names.addAll(b.children.keySet());
+        for (String name : names) {
+            diff(a.children.get(name), b.children.get(name), prefix == null ? null : prefix.isEmpty() ? name : prefix + "/" + name, out, outIds);
+        }
+    }
+
+    private static void collect(Node n, String path, Set<String> out, BitSet outIds) {
+        if (!n.isDir()) {
+            if (outIds != null) outIds.set(n.id); else out.add(path);
+            return;
+        }
+        for (Map.Entry<String, Node> c : n.children.entrySet()) collect(c.getValue(), path == null ? null : path + "/" + c.getKey(), out, outIds);
+    }
+
+    /** 32 bytes of a 64-digit hex SHA-256 (any case), or null for an unknown or malformed one. */
+    private static byte[] fromHex(String hex) {
+        if (hex == null || hex.length() != 64) return null;
+        byte[] out = new byte[32];
+        for (int i = 0; i < 32; i++) {
+            int hi = Character.digit(hex.charAt(i * 2), 16), lo = Character.digit(hex.charAt(i * 2 + 1), 16);
+            if (hi < 0 || lo < 0) return null;
+            out[i] = (byte) (hi << 4 | lo);
+        }
+        return out;
+    }
+
+    private static byte[] hexAscii(byte[] hash, byte[] out) {
+        for (int i = 0; i < 32; i++) {
+            out[i * 2] = (byte) Character.forDigit((hash[i] >>> 4) & 0xF, 16);
+            out[i * 2 + 1] = (byte) Character.forDigit(hash[i] & 0xF, 16);
+        }
+        return out;
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
@@ -1,8 +1,7 @@
 package icu.nyat.kusunoki.modpackupdater.updater.util;
 
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 
 import java.io.BufferedReader;
 import java.io.IOException;
@@ -10,6 +9,8 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
@@ -17,98 +18,224 @@ public final class ModMetadataUtils {
     private ModMetadataUtils() {}
 
     /**
-     * Best-effort extraction of a mod version string from a mod jar.
-     * Supports Fabric (fabric.mod.json), Quilt (quilt.mod.json), and Forge/NeoForge (META-INF/mods.toml).
-     * Returns null if no version can be determined.
+     * Reads everything we use from a mod jar in a single open: the zip central directory is read once and each known
+     * descriptor is looked up in it. Identity, loader and jar-in-jar entries come from the first descriptor present
+     * (Fabric, Quilt, NeoForge, Forge; the latter two list nested jars in {@code META-INF/jarjar/metadata.json}); the
+     * version is the first non-blank one across them. Descriptors are only read until all of that is known. Returns
+     * null if the jar can't be opened.
      */
-    public static String readModVersion(Path jarPath) {
+    public static ModMetadata readModMetadata(Path jarPath) {
         try (ZipFile zf = new ZipFile(jarPath.toFile())) {
-            // Fabric
-            String v = tryFabric(zf);
-            if (v != null && !v.isBlank()) return v;
-            // Quilt
-            v = tryQuilt(zf);
-            if (v != null && !v.isBlank()) return v;
-            // NeoForge (1.21+ JSON metadata)
-            v = tryNeoForgeJson(zf);
-            if (v != null && !v.isBlank()) return v;
-            // Forge/older NeoForge (TOML)
-            v = tryForgeToml(zf);
-            if (v != null && !v.isBlank()) return v;
+            ModMetadata md = new ModMetadata();
+            probe(md, "fabric", zf, "fabric.mod.json", ModMetadataUtils::readFabric);
+            probe(md, "quilt", zf, "quilt.mod.json", ModMetadataUtils::readQuilt);
+            probe(md, "neoforge", zf, "neoforge.mods.json", ModMetadataUtils::readNeoForgeJson);
+            probe(md, "neoforge", zf, "META-INF/neoforge.mods.toml", ModMetadataUtils::readModsToml);
+            probe(md, "forge", zf, "META-INF/mods.toml", ModMetadataUtils::readModsToml);
+            // Forge/NeoForge jar-in-jar listing, looked up in the central directory read above
+            ZipEntry jarJar = "forge".equals(md.loader) || "neoforge".equals(md.loader) ? zf.getEntry("META-INF/jarjar/metadata.json") : null;
+            if (jarJar != null) {
+                try (JsonReader r = jsonReader(zf.getInputStream(jarJar))) {
+                    if (r.peek() == JsonToken.BEGIN_OBJECT) {
+                        r.beginObject();
+                        while (r.hasNext()) {
+                            if (r.nextName().equals("jars")) { readJars(r, "path", md); break; }
+                            r.skipValue();
+                        }
+                    }
+                } catch (IOException | RuntimeException ignored) {}
+            }
+            return md;
         } catch (IOException ignored) {}
         return null;
     }
 
-    private static String tryFabric(ZipFile zf) throws IOException {
-        ZipEntry e = zf.getEntry("fabric.mod.json");
-        if (e == null) return null;
-        try (InputStream is = zf.getInputStream(e)) {
-            JsonElement el = JsonParser.parseReader(new InputStreamReader(is, StandardCharsets.UTF_8));
-            if (!el.isJsonObject()) return null;
-            JsonObject obj = el.getAsJsonObject();
-            JsonElement ve = obj.get("version");
-            if (ve != null && ve.isJsonPrimitive()) return ve.getAsString();
+    /** Mod identity plus loader type and jar-in-jar entries, as read by {@link #readModMetadata(Path)}. */
+    public static final class ModMetadata {
+        public String id;
+        public String name;
+        public String version;
+        public String loader; // "fabric", "quilt", "neoforge", "forge"; null if no descriptor was found
+        public final List<String> nestedJars = new ArrayList<>(); // paths inside the jar
+        boolean hasInfo; // a descriptor was found (possibly without any usable field)
+
+        public ModInfo toInfo() { return hasInfo ? new ModInfo(id, name, version) : null; }
+
+        private boolean identityKnown() { return id != null && name != null && version != null; }
+    }
+
+    private interface DescriptorReader {
+        boolean read(ModMetadata md, InputStream in) throws IOException; // false = nothing usable
+    }
+
+    private static void probe(ModMetadata md, String loader, ZipFile zf, String entry, DescriptorReader reader) {
+        // Once identity and version are known nothing later can change the result
+        if (md.hasInfo && md.version != null) return;
+        ZipEntry e = zf.getEntry(entry);
+        if (e == null) return;
+        boolean identity = !md.hasInfo;
+        ModMetadata found = new ModMetadata();
+        try (InputStream in = zf.getInputStream(e)) {
+            if (!reader.read(found, in)) return;
+        } catch (IOException | RuntimeException malformed) {
+            return;
         }
-        return null;
+        found.id = emptyToNull(found.id); found.name = emptyToNull(found.name); found.version = emptyToNull(found.version);
+        if (identity) {
+            md.hasInfo = true; md.loader = loader; md.id = found.id; md.name = found.name;
+            md.nestedJars.addAll(found.nestedJars);
+        }
+        if (md.version == null) md.version = found.version;
     }
 
-    private static String tryQuilt(ZipFile zf) throws IOException {
-        ZipEntry e = zf.getEntry("quilt.mod.json");
-        if (e == null) return null;
-        try (InputStream is = zf.getInputStream(e)) {
-            JsonElement el = JsonParser.parseReader(new InputStreamReader(is, StandardCharsets.UTF_8));
-            if (!el.isJsonObject()) return null;
-            JsonObject obj = el.getAsJsonObject();
-            JsonElement ql = obj.get("quilt_loader");
-            if (ql != null && ql.isJsonObject()) {
-                JsonElement ve = ql.getAsJsonObject().get("version");
-                if (ve != null && ve.isJsonPrimitive()) return ve.getAsString();
+    // The JSON descriptors are streamed: unknown members (entrypoints, mixins, custom blocks) are skipped without
+    // building a tree, and reading stops once everything wanted has been seen.
+
+    private static boolean readFabric(ModMetadata md, InputStream in) throws IOException {
+        try (JsonReader r = jsonReader(in)) {
+            if (r.peek() != JsonToken.BEGIN_OBJECT) return false;
+            r.beginObject();
+            boolean jarsSeen = false;
+            while (r.hasNext()) {
+                switch (r.nextName()) {
+                    case "id": md.id = nextString(r); break;
+                    case "name": md.name = nextString(r); break;
+                    case "version": md.version = nextString(r); break;
+                    case "jars": readJars(r, "file", md); jarsSeen = true; break;
+                    default: r.skipValue(); break;
+                }
+                if (jarsSeen && md.identityKnown()) break;
             }
+            return true;
+        }
+    }
+
+    private static boolean readQuilt(ModMetadata md, InputStream in) throws IOException {
+        try (JsonReader r = jsonReader(in)) {
+            if (r.peek() != JsonToken.BEGIN_OBJECT) return false;
+            r.beginObject();
+            String topId = null, topName = null, topVersion = null, qlId = null, qlName = null, qlVersion = null, metaName = null;
+            boolean loaderSeen = false;
+            while (r.hasNext()) {
+                switch (r.nextName()) {
+                    case "id": topId = nextString(r); break;
+                    case "name": topName = nextString(r); break;
+                    case "version": topVersion = nextString(r); break;
+                    case "quilt_loader":
+                        if (r.peek() != JsonToken.BEGIN_OBJECT) { r.skipValue(); break; }
+                        loaderSeen = true;
+                        r.beginObject();
+                        while (r.hasNext()) {
+                            switch (r.nextName()) {
+                                case "id": qlId = nextString(r); break;
+                                case "name": qlName = nextString(r); break;
+                                case "version": qlVersion = nextString(r); break;
+                                case "jars": readJars(r, "file", md); break;
+                                case "metadata":
+                                    if (r.peek() != JsonToken.BEGIN_OBJECT) { r.skipValue(); break; }
+                                    r.beginObject();
+                                    while (r.hasNext()) { if (r.nextName().equals("name")) metaName = nextString(r); else r.skipValue(); }
+                                    r.endObject();
+                                    break;
+                                default: r.skipValue(); break;
+                            }
+                        }
+                        r.endObject();
+                        break;
+                    default: r.skipValue(); break;
+                }
+                // Top-level id/name win over quilt_loader ones, so stop early only once nothing later can change the result
+                if (loaderSeen && topId != null && topName != null && (qlVersion != null || topVersion != null)) break;
+            }
+            md.id = topId != null ? topId : qlId;
+            md.name = topName != null ? topName : qlName != null ? qlName : metaName;
             // Fallbacks (some mods may keep top-level id/version)
-            JsonElement ve = obj.get("version");
-            if (ve != null && ve.isJsonPrimitive()) return ve.getAsString();
+            md.version = qlVersion != null ? qlVersion : topVersion;
+            return true;
         }
-        return null;
     }
 
-    private static String tryNeoForgeJson(ZipFile zf) throws IOException {
-        ZipEntry e = zf.getEntry("neoforge.mods.json");
-        if (e == null) return null;
-        try (InputStream is = zf.getInputStream(e)) {
-            JsonElement el = JsonParser.parseReader(new InputStreamReader(is, StandardCharsets.UTF_8));
-            if (!el.isJsonObject()) return null;
-            JsonObject obj = el.getAsJsonObject();
-            // Prefer mods[0].version
-            JsonElement modsEl = obj.get("mods");
-            if (modsEl != null && modsEl.isJsonArray() && modsEl.getAsJsonArray().size() > 0) {
-                JsonElement first = modsEl.getAsJsonArray().get(0);
-                if (first.isJsonObject()) {
-                    JsonElement ve = first.getAsJsonObject().get("version");
-                    if (ve != null && ve.isJsonPrimitive()) return ve.getAsString();
+    private static boolean readNeoForgeJson(ModMetadata md, InputStream in) throws IOException {
+        try (JsonReader r = jsonReader(in)) {
+            if (r.peek() != JsonToken.BEGIN_OBJECT) return false;
+            r.beginObject();
+            String topVersion = null;
+            boolean modsSeen = false;
+            while (r.hasNext()) {
+                String key = r.nextName();
+                if (key.equals("mods") && !modsSeen && r.peek() == JsonToken.BEGIN_ARRAY) {
+                    // Prefer mods[0]; later entries are skipped
+                    modsSeen = true;
+                    r.beginArray();
+                    if (r.hasNext() && r.peek() == JsonToken.BEGIN_OBJECT) {
+                        String modId = null, id = null, displayName = null, name = null;
+                        r.beginObject();
+                        while (r.hasNext()) {
+                            switch (r.nextName()) {
+                                case "modId": modId = nextString(r); break;
+                                case "id": id = nextString(r); break;
+                                case "displayName": displayName = nextString(r); break;
+                                case "name": name = nextString(r); break;
+                                case "version": md.version = nextString(r); break;
+                                default: r.skipValue(); break;
+                            }
+                        }
+                        r.endObject();
+                        md.id = modId != null ? modId : id;
+                        md.name = displayName != null ? displayName : name;
+                    }
+                    while (r.hasNext()) r.skipValue();
+                    r.endArray();
+                    if (md.version != null) break;
+                } else if (key.equals("version")) {
+                    topVersion = nextString(r);
+                } else {
+                    r.skipValue();
                 }
             }
             // Fallback to top-level version if present
-            JsonElement ve = obj.get("version");
-            if (ve != null && ve.isJsonPrimitive()) return ve.getAsString();
+            if (md.version == null) md.version = topVersion;
+            return true;
         }
-        return null;
     }
 
-    private static String tryForgeToml(ZipFile zf) throws IOException {
-        ParsedForgeModsToml parsed = parseForgeModsToml(zf);
-        return parsed.version;
+    private static boolean readModsToml(ModMetadata md, InputStream in) throws IOException {
+        ParsedForgeModsToml p = parseForgeModsToml(new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8)));
+        md.id = p.modId; md.name = p.displayName; md.version = p.version;
+        return p.modId != null || p.displayName != null || p.version != null;
     }
 
-    /** New: read full mod identity (id, name, version). */
-    public static ModInfo readModInfo(Path jarPath) {
-        try (ZipFile zf = new ZipFile(jarPath.toFile())) {
-            ModInfo info;
-            info = tryFabricInfo(zf); if (isComplete(info)) return info; if (info != null) return info;
-            info = tryQuiltInfo(zf); if (isComplete(info)) return info; if (info != null) return info;
-            info = tryNeoForgeJsonInfo(zf); if (isComplete(info)) return info; if (info != null) return info;
-            info = tryForgeTomlInfo(zf); if (isComplete(info)) return info; if (info != null) return info;
-        } catch (IOException ignored) {}
-        return null;
+    /** Adds jar-in-jar paths from an array of strings or of objects holding the path under {@code key}. */
+    private static void readJars(JsonReader r, String key, ModMetadata md) throws IOException {
+        if (r.peek() != JsonToken.BEGIN_ARRAY) { r.skipValue(); return; }
+        r.beginArray();
+        while (r.hasNext()) {
+            String path = null;
+            if (r.peek() == JsonToken.BEGIN_OBJECT) {
+                r.beginObject();
+                while (r.hasNext()) { if (r.nextName().equals(key)) path = nextString(r); else r.skipValue(); }
+                r.endObject();
+            } else {
+                path = nextString(r);
+            }
+            if (path != null && !path.isBlank()) md.nestedJars.add(path);
+        }
+        r.endArray();
+    }
+
+    private static JsonReader jsonReader(InputStream in) {
+        JsonReader r = new JsonReader(new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8)));
+        r.setLenient(true); // same leniency JsonParser.parseReader applied
+        return r;
+    }
+
+    /** Primitive value as a string (like JsonElement#getAsString), null for objects, arrays and null. */
+    private static String nextString(JsonReader r) throws IOException {
+        switch (r.peek()) {
+            case STRING: case NUMBER: return r.nextString();
+            case BOOLEAN: return Boolean.toString(r.nextBoolean());
+            default: r.skipValue(); return null;
+        }
     }
 
     public static final class ModInfo {
@@ -121,76 +248,10 @@ public final class ModMetadataUtils {
             this.name = emptyToNull(name);
             this.version = emptyToNull(version);
         }
-
-        private static String emptyToNull(String s) {
-            return (s == null || s.isBlank()) ? null : s;
-        }
     }
 
-    private static boolean isComplete(ModInfo mi) { return mi != null && mi.id != null && mi.version != null; }
-
-    // Fabric parsing returning ModInfo
-    private static ModInfo tryFabricInfo(ZipFile zf) throws IOException {
-        ZipEntry e = zf.getEntry("fabric.mod.json");
-        if (e == null) return null;
-        try (InputStream is = zf.getInputStream(e)) {
-            JsonElement el = JsonParser.parseReader(new InputStreamReader(is, StandardCharsets.UTF_8));
-            if (!el.isJsonObject()) return null;
-            JsonObject obj = el.getAsJsonObject();
-            return new ModInfo(asString(obj.get("id")), asString(obj.get("name")), asString(obj.get("version")));
-        }
-    }
-
-    private static ModInfo tryQuiltInfo(ZipFile zf) throws IOException {
-        ZipEntry e = zf.getEntry("quilt.mod.json");
-        if (e == null) return null;
-        try (InputStream is = zf.getInputStream(e)) {
-            JsonElement el = JsonParser.parseReader(new InputStreamReader(is, StandardCharsets.UTF_8));
-            if (!el.isJsonObject()) return null;
-            JsonObject obj = el.getAsJsonObject();
-            String id = asString(obj.get("id"));
-            String name = asString(obj.get("name"));
-            String version = null;
-            JsonElement ql = obj.get("quilt_loader");
-            if (ql != null && ql.isJsonObject()) {
-                JsonObject qlo = ql.getAsJsonObject();
-                if (id == null) id = asString(qlo.get("id"));
-                if (name == null) name = asString(qlo.get("name"));
-                if (version == null) version = asString(qlo.get("version"));
-            }
-            if (version == null) version = asString(obj.get("version"));
-            return new ModInfo(id, name, version);
-        }
-    }
-
-    private static ModInfo tryNeoForgeJsonInfo(ZipFile zf) throws IOException {
-        ZipEntry e = zf.getEntry("neoforge.mods.json");
-        if (e == null) return null;
-        try (InputStream is = zf.getInputStream(e)) {
-            JsonElement el = JsonParser.parseReader(new InputStreamReader(is, StandardCharsets.UTF_8));
-            if (!el.isJsonObject()) return null;
-            JsonObject obj = el.getAsJsonObject();
-            String id = null, name = null, version = null;
-            JsonElement modsEl = obj.get("mods");
-            if (modsEl != null && modsEl.isJsonArray() && modsEl.getAsJsonArray().size() > 0) {
-                JsonElement first = modsEl.getAsJsonArray().get(0);
-                if (first.isJsonObject()) {
-                    JsonObject fo = first.getAsJsonObject();
-                    id = asString(fo.get("modId"));
-                    if (id == null) id = asString(fo.get("id"));
-                    name = asString(fo.get("displayName"));
-                    if (name == null) name = asString(fo.get("name"));
-                    version = asString(fo.get("version"));
-                }
-            }
-            if (version == null) version = asString(obj.get("version"));
-            return new ModInfo(id, name, version);
-        }
-    }
-
-    private static ModInfo tryForgeTomlInfo(ZipFile zf) throws IOException {
-        ParsedForgeModsToml p = parseForgeModsToml(zf);
-        return p.isEmpty() ? null : new ModInfo(p.modId, p.displayName, p.version);
+    private static String emptyToNull(String s) {
+        return (s == null || s.isBlank()) ? null : s;
     }
 
     // Helper data holder
@@ -198,50 +259,44 @@ public final class ModMetadataUtils {
         String modId;
         String displayName;
         String version;
-
-        boolean isEmpty() { return modId == null && displayName == null && version == null; }
     }
 
     /**
-     * Parse the first [mods] or [[mods]] table in mods.toml capturing modId, displayName, version.
+     * Parse the first [mods] or [[mods]] table in mods.toml (or neoforge.mods.toml) capturing modId, displayName, version.
      * Handles stripping inline comments (# ...) outside of quoted strings and trims values.
      */
-    private static ParsedForgeModsToml parseForgeModsToml(ZipFile zf) throws IOException {
-        ZipEntry e = zf.getEntry("META-INF/mods.toml");
+    private static ParsedForgeModsToml parseForgeModsToml(BufferedReader br) throws IOException {
         ParsedForgeModsToml r = new ParsedForgeModsToml();
-        if (e == null) return r;
-        try (BufferedReader br = new BufferedReader(new InputStreamReader(zf.getInputStream(e), StandardCharsets.UTF_8))) {
-            boolean inMods = false;
-            String line;
-            while ((line = br.readLine()) != null) {
-                String trimmed = line.trim();
-                if (trimmed.startsWith("[")) {
-                    // Section header
-                    if (inMods && !trimmed.equals("[mods]") && !trimmed.equals("[[mods]]")) {
-                        // leaving mods section
-                        break;
-                    }
-                    if (!inMods && (trimmed.equals("[mods]") || trimmed.equals("[[mods]]"))) {
-                        inMods = true; // enter mods table
-                    }
-                    continue; // proceed to next line
+        boolean inMods = false;
+        String line;
+        while ((line = br.readLine()) != null) {
+            String trimmed = line.trim();
+            if (trimmed.startsWith("[")) {
+                // Section header
+                if (inMods && !trimmed.equals("[mods]") && !trimmed.equals("[[mods]]")) {
+                    // leaving mods section
+                    break;
                 }
-                if (!inMods) continue;
-                String noComment = stripTomlComment(line);
-                if (noComment.isEmpty()) continue;
-                int eq = noComment.indexOf('=');
-                if (eq <= 0) continue;
-                String key = noComment.substring(0, eq).trim();
-                String value = unquote(noComment.substring(eq + 1).trim());
-                if (value != null && value.isEmpty()) value = null;
-                switch (key) {
-                    case "modId": if (r.modId == null) r.modId = value; break;
-                    case "displayName": if (r.displayName == null) r.displayName = value; break;
-                    case "version": if (r.version == null) r.version = value; break;
-                    default: break;
+                if (!inMods && (trimmed.equals("[mods]") || trimmed.equals("[[mods]]"))) {
+                    inMods = true; // enter mods table
                 }
-                if (r.modId != null && r.displayName != null && r.version != null) break; // all found
+                continue; // proceed to next line
             }
+            if (!inMods) continue;
+            String noComment = stripTomlComment(line);
+            if (noComment.isEmpty()) continue;
+            int eq = noComment.indexOf('=');
+            if (eq <= 0) continue;
+            String key = noComment.substring(0, eq).trim();
+            String value = unquote(noComment.substring(eq + 1).trim());
+            if (value != null && value.isEmpty()) value = null;
+            switch (key) {
+                case "modId": if (r.modId == null) r.modId = value; break;
+                case "displayName": if (r.displayName == null) r.displayName = value; break;
+                case "version": if (r.version == null) r.version = value; break;
+                default: break;
+            }
+            if (r.modId != null && r.displayName != null && r.version != null) break; // all found
         }
         // Clean potential trailing comment fragments (defensive)
         if (r.displayName != null) r.displayName = cleanupValue(r.displayName);
@@ -272,16 +327,8 @@ public final class ModMetadataUtils {
     }
 
     private static String stripTomlComment(String line) {
-        boolean inSingle = false, inDouble = false;
-        StringBuilder sb = new StringBuilder();
-        for (int i = 0; i < line.length(); i++) {
-            char c = line.charAt(i);
-            if (c == '"' && !inSingle) { inDouble = !inDouble; sb.append(c); continue; }
-            if (c == '\'' && !inDouble) { inSingle = !inSingle; sb.append(c); continue; }
-            if (c == '#' && !inSingle && !inDouble) break; // start of comment
-            sb.append(c);
-        }
-        return sb.toString().trim();
+        int hashPos = indexOfUnescapedHashOutsideQuotes(line);
+        return (hashPos >= 0 ? line.substring(0, hashPos) : line).trim();
     }
 
     private static String unquote(String v) {
@@ -293,5 +340,4 @@ public final class ModMetadataUtils {
         return s.trim();
     }
 
-    private static String asString(JsonElement el) { return el != null && el.isJsonPrimitive() ? el.getAsString() : null; }
 }
@@ -0,0 +1,263 @@
+package icu.nyat.kusunoki.modpackupdater.updater.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Include/exclude rules compiled once into a segment trie (plain include paths) plus anchored glob patterns.
+ * Matching walks the relative path in place, so it allocates nothing for plain includes.
+ *
+ * <ul>
+ *   <li>Include entries are folder or file paths relative to the game directory ({@code mods}, {@code options.txt}),
+ *       or globs ({@code resourcepacks/*.zip}, {@code config/**}). {@code *} and {@code ?} stay within one segment,
+ *       {@code **} spans segments.</li>
+ *   <li>Excludes come from the {@code excludePaths} option or include entries prefixed with {@code !}. A pattern
+ *       without {@code /} matches a single segment at any depth ({@code *.bak}); otherwise it is anchored at the game
+ *       directory. An excluded directory is pruned with everything below it.</li>
+ *   <li>Like the server (see CLIENT.md), {@code .DS_Store}, {@code Thumbs.db}, anything inside a dot-directory and a
+ *       top-level {@code pack.json} are always ignored.</li>
+ * </ul>
+ */
+public final class PathFilter {
+    private final Node root = new Node("");
+    private final List<Glob> includeGlobs = new ArrayList<>();
+    private final List<Glob> excludeGlobs = new ArrayList<>();
+    private final List<String> excludeNames = new ArrayList<>(); // literal single-segment excludes
+    private final Set<String> roots = new LinkedHashSet<>();
+    private final String signature;
+
+    private PathFilter(String[] includePaths, String[] excludePaths) {
+        StringBuilder sig = new StringBuilder();
+        if (includePaths != null) {
+            for (String inc : includePaths) {
+                if (inc == null || inc.isBlank()) continue;
+                String p = clean(inc);
+                sig.append(inc.trim()).append('\n');
+                if (p.startsWith("!")) { addExclude(clean(p.substring(1))); continue; }
+                if (p.isEmpty()) continue;
+                if (isGlob(p)) {
+                    includeGlobs.add(new Glob(p));
+                    roots.add(literalPrefix(p));
+                } else {
+                    root.insert(p);
+                    roots.add(p);
+                }
+            }
+        }
+        if (excludePaths != null) {
+            for (String ex : excludePaths) {
+                if (ex == null || ex.isBlank()) continue;
+                sig.append('!').append(ex.trim()).append('\n');
+                addExclude(clean(ex));
+            }
+        }
+        this.signature = sig.toString();
+    }
+
+    public static PathFilter compile(String[] includePaths) { return new PathFilter(includePaths, null); }
+
+    public static PathFilter compile(String[] includePaths, String[] excludePaths) { return new PathFilter(includePaths, excludePaths); }
+
+    /** True if the file at {@code relPath} takes part in syncing. */
+    public boolean matches(String relPath) {
+        String p = relPath.indexOf('\\') >= 0 ? relPath.replace('\\', '/') : relPath;
+        if (isIgnored(p, false) || isExcluded(p)) return false;
+        if (root.matchesPrefixOf(p)) return true;
+        for (Glob g : includeGlobs) if (g.matches(p)) return true;
+        return false;
+    }
+
+    /** True if files below directory {@code relDir} could match; false prunes the directory from a walk. */
+    public boolean shouldDescend(String relDir) {
+        String p = relDir.indexOf('\\') >= 0 ? relDir.replace('\\', '/') : relDir;
+        if (p.isEmpty()) return true;
+        if (isIgnored(p, true) || isExcluded(p)) return false;
+        if (root.matchesPrefixOf(p) || root.isAncestorOfEntry(p)) return true;
+        for (Glob g : includeGlobs) if (g.mayMatchBelow(p)) return true;
+        return false;
+    }
+
+    /** Starting points for a walk: plain include paths and the literal directory prefix of each glob ("" = game dir). */
+    public String[] roots() { return roots.toArray(new String[0]); }
+
+    /** Stable text form of the rules; equal signatures mean equal filters. */
+    public String signature() { return signature; }
+
+    private void addExclude(String p) {
+        if (p.isEmpty()) return;
+        if (p.indexOf('/') < 0 && !isGlob(p)) excludeNames.add(p);
+        else excludeGlobs.add(new Glob(p.indexOf('/') < 0 ? "**/" + p : p));
+    }
+
+    private boolean isExcluded(String p) {
+        if (!excludeNames.isEmpty()) {
+            int start = 0;
+            while (start <= p.length()) {
+                int end = p.indexOf('/', start);
+                if (end < 0) end = p.length();
+                for (String n : excludeNames) {
+                    if (n.length() == end - start && p.regionMatches(start, n, 0, n.length())) return true;
+                }
+                start = end + 1;
+            }
+        }
+        for (Glob g : excludeGlobs) if (g.matchesSelfOrAncestor(p)) return true;
+        return false;
+    }
+
+    /** Server-side ignore list: dot-directories anywhere, OS metadata files, root pack.json. */
+    private static boolean isIgnored(String p, boolean isDir) {
+        if (p.equals("pack.json")) return true;
+        int start = 0;
+        while (start < p.length()) {
+            int end = p.indexOf('/', start);
+            boolean last = end < 0;
+            if (last) end = p.length();
+            if (end > start && p.charAt(start) == '.' && (!last || isDir)) return true;
+            if (last && !isDir && (p.regionMatches(start, ".DS_Store", 0, 9) && end - start == 9
+                    || p.regionMatches(start, "Thumbs.db", 0, 9) && end - start == 9)) return true;
+            start = end + 1;
+        }
+        return false;
+    }
+
+    private static String clean(String s) {
+        String p = s.trim().replace('\\', '/');
+        while (p.startsWith("./")) p = p.substring(2);
+        while (p.endsWith("/")) p = p.substring(0, p.length() - 1);
+        return p;
+    }
+
+    private static boolean isGlob(String p) {
+        return p.indexOf('*') >= 0 || p.indexOf('?') >= 0;
+    }
+
+    private static String literalPrefix(String glob) {
+        int firstWild = Math.min(glob.indexOf('*') < 0 ? glob.length() : glob.indexOf('*'), glob.indexOf('?') < 0 ? glob.length() : glob.indexOf('?'));
+        int slash = glob.lastIndexOf('/', firstWild);
+        return slash < 0 ? "" : glob.substring(0, slash);
+    }
+
+    /** Trie over path segments; a terminal node includes its whole subtree. */
+    private static final class Node {
+        final String segment;
+        Node[] children = new Node[0];
+        boolean terminal;
+
+        Node(String segment) { this.segment = segment; }
+
+        void insert(String path) {
+            Node n = this;
+            for (String seg : path.split("/")) {
+                if (seg.isEmpty()) continue;
+                Node next = null;
+                for (Node c : n.children) if (c.segment.equals(seg)) { next = c; break; }
+                if (next == null) {
+                    next = new Node(seg);
+                    Node[] grown = Arrays.copyOf(n.children, n.children.length + 1);
+                    grown[n.children.length] = next;
+                    n.children = grown;
+                }
+                n = next;
+            }
+            n.terminal = true;
+        }
+
+        private Node child(String p, int start, int end) {
+            for (Node c : children) {
+                if (c.segment.length() == end - start && p.regionMatches(start, c.segment, 0, end - start)) return c;
+            }
+            return null;
+        }
+
+        /** True if some terminal node lies on the path (the path equals or is below an include entry). */
+        boolean matchesPrefixOf(String p) {
+            Node n = this;
+            int start = 0;
+            while (start <= p.length()) {
+                int end = p.indexOf('/', start);
+                if (end < 0) end = p.length();
+                n = n.child(p, start, end);
+                if (n == null) return false;
+                if (n.terminal) return true;
+                start = end + 1;
+            }
+            return false;
+        }
+
+        /** True if the path is a proper ancestor of an include entry (e.g. "config" for "config/foo"). */
+        boolean isAncestorOfEntry(String p) {
+            Node n = this;
+            int start = 0;
+            while (start <= p.length()) {
+                int end = p.indexOf('/', start);
+                if (end < 0) end = p.length();
+                n = n.child(p, start, end);
+                if (n == null) return false;
+                start = end + 1;
+            }
+            return n.children.length > 0;
+        }
+    }
+
+    private static final class Glob {
+        final String[] segments;
+        final Pattern[] segmentPatterns;
+        final Pattern full;
+
+        Glob(String glob) {
+            this.segments = glob.split("/");
+            this.segmentPatterns = new Pattern[segments.length];
+            for (int i = 0; i < segments.length; i++) segmentPatterns[i] = Pattern.compile(toRegex(segments[i]));
+            this.full = Pattern.compile(toRegex(glob));
+        }
+
+        boolean matches(String p) { return full.matcher(p).matches(); }
+
+        /** True if the path or one of its ancestor directories matches (an excluded directory excludes its contents). */
+        boolean matchesSelfOrAncestor(String p) {
+            if (matches(p)) return true;
+            for (int i = p.indexOf('/'); i > 0; i = p.indexOf('/', i + 1)) {
+                if (full.matcher(p).region(0, i).matches()) return true;
+            }
+            return false;
+        }
+
+        /** True if a file below directory {@code dir} could match this glob. */
+        boolean mayMatchBelow(String dir) {
+            String[] parts = dir.split("/");
+            for (int i = 0; i < parts.length; i++) {
+                if (i >= segments.length - 1) return segments.length > 0 && segments[segments.length - 1].equals("**");
+                if (segments[i].equals("**")) return true;
+                if (!segmentPatterns[i].matcher(parts[i]).matches()) return false;
+            }
+            return true;
+        }
+
+        private static String toRegex(String glob) {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < glob.length(); i++) {
+                char c = glob.charAt(i);
+                if (c == '*') {
+                    if (i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+                        // "**/" matches zero or more whole directories, a trailing "**" matches everything below
+                        if (i + 2 < glob.length() && glob.charAt(i + 2) == '/') { sb.append("(?:.*/)?"); i += 2; }
+                        else { sb.append(".*"); i++; }
+                    } else {
+                        sb.append("[^/]*");
+                    }
+                } else if (c == '?') {
+                    sb.append("[^/]");
+                } else {
+                    if ("\\.[]{}()+-^$|".indexOf(c) >= 0) sb.append('\\');
+                    sb.append(c);
+                }
+            }
+            return sb.toString();
+        }
+    }
+}
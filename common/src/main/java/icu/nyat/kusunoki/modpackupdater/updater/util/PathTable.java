@@ -0,0 +1,76 @@
+package icu.nyat.kusunoki.modpackupdater.updater.util;
+
+import java.util.Arrays;
+
+/**
+ * Interns relative paths to dense int ids (0, 1, 2, ...) so per-path state during a diff can live in arrays indexed
+ * by id instead of one {@code HashMap<String, ...>} per view. Each path string is stored once; lookups use open
+ * addressing over an {@code int[]}, so the table itself allocates nothing per entry.
+ *
+ * <p>Callers intern already-normalized keys; the table compares them exactly.
+ */
+public final class PathTable {
+    private String[] paths;
+    private int[] hashes;
+    private int[] slots; // id + 1, 0 = empty
+    private int size;
+
+    public PathTable(int expected) {
+        int cap = Math.max(16, expected);
+        paths = new String[cap];
+        hashes = new int[cap];
+        slots = new int[Integer.highestOneBit(Math.max(8, cap) * 2 - 1) << 1];
+    }
+
+    /** Id of {@code path}, assigning the next free one if it is new. */
+    public int intern(String path) {
+        int h = mix(path.hashCode());
+        int mask = slots.length - 1;
+        for (int i = h & mask; ; i = (i + 1) & mask) {
+            int s = slots[i];
+            if (s == 0) {
+                int id = size++;
+                if (id == paths.length) {
+                    paths = Arrays.copyOf(paths, id * 2);
+                    hashes = Arrays.copyOf(hashes, id * 2);
+                }
+                paths[id] = path;
+                hashes[id] = h;
+                slots[i] = id + 1;
+                if (size * 2 > slots.length) rehash();
+                return id;
+            }
+            if (hashes[s - 1] == h && paths[s - 1].equals(path)) return s - 1;
+        }
+    }
+
+    /** Id of {@code path}, or -1 if it was never interned. */
+    public int id(String path) {
+        int h = mix(path.hashCode());
+        int mask = slots.length - 1;
+        for (int i = h & mask; ; i = (i + 1) & mask) {
+            int s = slots[i];
+            if (s == 0) return -1;
+            if (hashes[s - 1] == h && paths[s - 1].equals(path)) return s - 1;
+        }
+    }
+
+    public String path(int id) { return paths[id]; }
+
+    public int size() { return size; }
+
+    private void rehash() {
+        slots = new int[slots.length * 2];
+        int mask = slots.length - 1;
+        for (int id = 0; id < size; id++) {
+            int i = hashes[id] & mask;
+            while (slots[i] != 0) i = (i + 1) & mask;
+            slots[i] = id + 1;
+        }
+    }
+
+    private static int mix(int h) {
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
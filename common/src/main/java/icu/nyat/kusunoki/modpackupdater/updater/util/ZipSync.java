@@ -0,0 +1,242 @@
+package icu.nyat.kusunoki.modpackupdater.updater.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Rebuilds a changed zip archive (mod jar, resourcepack) from the entries the local copy already has plus ranged reads
+ * of the server's copy. The server archive's central directory is read from its tail; each entry's byte region
+ * (local header, compressed data, data descriptor) is copied from the local archive when the entry is unchanged
+ * (same name, CRC, sizes, method, timestamps, flags and region length) and fetched otherwise. Regions are written
+ * in server order, so an archive built the same way comes out byte-identical; the caller verifies the SHA-256.
+ *
+ * <p>Zip64 archives, and updates where most of the archive changed, are left to a whole-file download.
+ */
+public final class ZipSync {
+    private static final int EOCD_SIG = 0x06054b50, CEN_SIG = 0x02014b50, ZIP64_LOCATOR_SIG = 0x07064b50;
+    private static final int EOCD_LEN = 22, CEN_LEN = 46, MAX_COMMENT = 0xFFFF;
+    private static final int FIRST_TAIL = 16 * 1024; // usually holds the end record and a small directory
+    // Beyond this share of the archive (or this many separate reads) a whole download is about as cheap
+    private static final double MAX_FETCH_SHARE = 0.5;
+    private static final int MAX_RANGES = 256;
+
+    /** Ranged reads of the remote archive. */
+    public interface RangeReader {
+        /** Stream of bytes {@code [start, end)}; null if the server does not serve ranges. */
+        InputStream open(long start, long end) throws IOException, InterruptedException;
+    }
+
+    public static final class Result {
+        public final long fetched, reused;
+        Result(long fetched, long reused) { this.fetched = fetched; this.reused = reused; }
+    }
+
+    private static final class Entry {
+        String name;
+        int flags, method, time, date, crc;
+        long csize, usize, offset, regionLength;
+    }
+
+    private ZipSync() {}
+
+    public static boolean isArchive(String relPath) {
+        String p = relPath.toLowerCase(java.util.Locale.ROOT);
+        return p.endsWith(".jar") || p.endsWith(".zip");
+    }
+
+    /** Writes the server archive of {@code remoteSize} bytes to {@code target}; null if this archive can't be synced entry-wise. */
+    public static Result sync(Path local, long remoteSize, RangeReader remote, Path target) throws IOException, InterruptedException {
+        if (remoteSize < EOCD_LEN) return null;
+        try (FileChannel in = FileChannel.open(local, StandardOpenOption.READ)) {
+            // The local copy is checked first so a file that is not a (plain) zip costs no remote reads
+            List<Entry> localEntries = readLocalDirectory(in);
+            return localEntries != null ? sync(in, localEntries, remoteSize, remote, target) : null;
+        }
+    }
+
+    private static Result sync(FileChannel in, List<Entry> localEntries, long remoteSize, RangeReader remote, Path target) throws IOException, InterruptedException {
+        long tailStart = remoteSize - Math.min(remoteSize, FIRST_TAIL);
+        byte[] tail = read(remote, tailStart, remoteSize);
+        if (tail == null) return null;
+        long dirBytes = tail.length;
+        ByteBuffer tb = ByteBuffer.wrap(tail).order(ByteOrder.LITTLE_ENDIAN);
+        int eocd = findEocd(tb);
+        if (eocd < 0 && tailStart > 0) {
+            // Long archive comment: the end record can sit up to 64 KiB from the end
+            tailStart = remoteSize - Math.min(remoteSize, EOCD_LEN + MAX_COMMENT);
+            tail = read(remote, tailStart, remoteSize);
+            if (tail == null) return null;
+            dirBytes += tail.length;
+            tb = ByteBuffer.wrap(tail).order(ByteOrder.LITTLE_ENDIAN);
+            eocd = findEocd(tb);
+        }
+        if (eocd < 0) return null;
+        long cdSize = tb.getInt(eocd + 12) & 0xFFFFFFFFL, cdOffset = tb.getInt(eocd + 16) & 0xFFFFFFFFL;
+        if (cdOffset + cdSize > tailStart + eocd) return null;
+
+        // Central directory + end record, written verbatim at the end of the rebuilt archive
+        byte[] suffix;
+        if (cdOffset >= tailStart) {
+            suffix = Arrays.copyOfRange(tail, (int) (cdOffset - tailStart), tail.length);
+        } else {
+            byte[] head = read(remote, cdOffset, tailStart);
+            if (head == null) return null;
+            dirBytes += head.length;
+            suffix = new byte[head.length + tail.length];
+            System.arraycopy(head, 0, suffix, 0, head.length);
+            System.arraycopy(tail, 0, suffix, head.length, tail.length);
+        }
+        List<Entry> remoteEntries = parseCentralDirectory(ByteBuffer.wrap(suffix, 0, (int) cdSize).order(ByteOrder.LITTLE_ENDIAN), cdOffset);
+        if (remoteEntries == null) return null;
+
+        Map<String, Entry> localByName = new HashMap<>();
+        for (Entry e : localEntries) localByName.putIfAbsent(e.name, e);
+
+        // Plan: for every server region, the local entry to copy it from (null = fetch)
+        int n = remoteEntries.size();
+        Entry[] source = new Entry[n];
+        long fetchBytes = remoteEntries.isEmpty() ? cdOffset : remoteEntries.get(0).offset;
+        int ranges = fetchBytes > 0 ? 1 : 0;
+        boolean prevFetched = fetchBytes > 0;
+        for (int i = 0; i < n; i++) {
+            Entry r = remoteEntries.get(i), l = localByName.get(r.name);
+            if (l != null && l.crc == r.crc && l.csize == r.csize && l.usize == r.usize && l.method == r.method
+                    && l.time == r.time && l.date == r.date && l.flags == r.flags && l.regionLength == r.regionLength) {
+                source[i] = l;
+                prevFetched = false;
+            } else {
+                fetchBytes += r.regionLength;
+                if (!prevFetched) ranges++;
+                prevFetched = true;
+            }
+        }
+        if (fetchBytes > remoteSize * MAX_FETCH_SHARE || ranges > MAX_RANGES) return null;
+
+        long fetched = dirBytes, reused = 0;
+        try (FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+             OutputStream os = Channels.newOutputStream(out)) {
+            long pos = 0; // next server offset to produce
+            int i = 0;
+            while (pos < cdOffset) {
+                if (i < n && remoteEntries.get(i).offset == pos && source[i] != null) {
+                    Entry l = source[i];
+                    for (long done = 0; done < l.regionLength; ) {
+                        long t = in.transferTo(l.offset + done, l.regionLength - done, out);
+                        if (t <= 0) throw new IOException("Local archive shorter than its directory");
+                        done += t;
+                    }
+                    reused += l.regionLength;
+                    pos += l.regionLength;
+                    i++;
+                    continue;
+                }
+                // Fetch from pos up to the next region that can be copied locally
+                long end = cdOffset;
+                int j = i;
+                while (j < n && (remoteEntries.get(j).offset < pos || source[j] == null)) j++;
+                if (j < n) end = remoteEntries.get(j).offset;
+                try (InputStream is = remote.open(pos, end)) {
+                    if (is == null) throw new IOException("Server stopped serving ranges");
+                    long copied = is.transferTo(os);
+                    if (copied != end - pos) throw new IOException("Short range read: " + copied + " of " + (end - pos));
+                }
+                os.flush();
+                fetched += end - pos;
+                pos = end;
+                i = j;
+            }
+            ByteBuffer sb = ByteBuffer.wrap(suffix);
+            while (sb.hasRemaining()) out.write(sb);
+        }
+        return new Result(fetched, reused);
+    }
+
+    private static byte[] read(RangeReader remote, long start, long end) throws IOException, InterruptedException {
+        try (InputStream is = remote.open(start, end)) {
+            if (is == null) return null;
+            byte[] b = is.readAllBytes();
+            if (b.length != end - start) throw new IOException("Short range read: " + b.length + " of " + (end - start));
+            return b;
+        }
+    }
+
+    /** Offset of the end-of-central-directory record in {@code b}, or -1 (also for Zip64 archives). */
+    private static int findEocd(ByteBuffer b) {
+        int len = b.limit();
+        for (int i = len - EOCD_LEN; i >= 0; i--) {
+            if (b.getInt(i) != EOCD_SIG || (b.getShort(i + 20) & 0xFFFF) != len - i - EOCD_LEN) continue;
+            if (i >= 20 && b.getInt(i - 20) == ZIP64_LOCATOR_SIG) return -1;
+            if ((b.getShort(i + 10) & 0xFFFF) == 0xFFFF || b.getInt(i + 12) == -1 || b.getInt(i + 16) == -1) return -1;
+            return i;
+        }
+        return -1;
+    }
+
+    /** Entries sorted by offset, with region lengths up to the next entry or the directory; null if malformed. */
+    private static List<Entry> parseCentralDirectory(ByteBuffer cd, long cdOffset) {
+        List<Entry> out = new ArrayList<>();
+        int p = 0, end = cd.limit();
+        while (p + CEN_LEN <= end) {
+            if (cd.getInt(p) != CEN_SIG) return null;
+            Entry e = new Entry();
+            e.flags = cd.getShort(p + 8) & 0xFFFF;
+            e.method = cd.getShort(p + 10) & 0xFFFF;
+            e.time = cd.getShort(p + 12) & 0xFFFF;
+            e.date = cd.getShort(p + 14) & 0xFFFF;
+            e.crc = cd.getInt(p + 16);
+            e.csize = cd.getInt(p + 20) & 0xFFFFFFFFL;
+            e.usize = cd.getInt(p + 24) & 0xFFFFFFFFL;
+            int nameLen = cd.getShort(p + 28) & 0xFFFF, extraLen = cd.getShort(p + 30) & 0xFFFF, commentLen = cd.getShort(p + 32) & 0xFFFF;
+            e.offset = cd.getInt(p + 42) & 0xFFFFFFFFL;
+            if (p + CEN_LEN + nameLen > end || e.offset >= cdOffset) return null;
+            byte[] name = new byte[nameLen];
+            cd.get(p + CEN_LEN, name);
+            e.name = new String(name, java.nio.charset.StandardCharsets.UTF_8);
+            out.add(e);
+            p += CEN_LEN + nameLen + extraLen + commentLen;
+        }
+        if (p != end) return null;
+        out.sort(Comparator.comparingLong(x -> x.offset));
+        for (int i = 0; i < out.size(); i++) {
+            long next = i + 1 < out.size() ? out.get(i + 1).offset : cdOffset;
+            out.get(i).regionLength = next - out.get(i).offset;
+            if (out.get(i).regionLength <= 0) return null; // overlapping or duplicate offsets
+        }
+        return out;
+    }
+
+    private static List<Entry> readLocalDirectory(FileChannel in) throws IOException {
+        long size = in.size();
+        if (size < EOCD_LEN) return null;
+        long tailStart = size - Math.min(size, EOCD_LEN + MAX_COMMENT);
+        ByteBuffer tail = ByteBuffer.allocate((int) (size - tailStart)).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(in, tail, tailStart);
+        int eocd = findEocd(tail);
+        if (eocd < 0) return null;
+        long cdSize = tail.getInt(eocd + 12) & 0xFFFFFFFFL, cdOffset = tail.getInt(eocd + 16) & 0xFFFFFFFFL;
+        if (cdOffset + cdSize > tailStart + eocd) return null;
+        ByteBuffer cd = ByteBuffer.allocate((int) cdSize).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(in, cd, cdOffset);
+        return parseCentralDirectory(cd, cdOffset);
+    }
+
+    private static void readFully(FileChannel in, ByteBuffer b, long pos) throws IOException {
+        while (b.hasRemaining()) {
+            if (in.read(b, pos + b.position()) < 0) throw new IOException("Unexpected end of archive");
+        }
+        b.flip();
+    }
+}
@@ -3,6 +3,7 @@ package icu.nyat.kusunoki.modpackupdater.version;
 import icu.nyat.kusunoki.modpackupdater.Constants;
 import icu.nyat.kusunoki.modpackupdater.platform.Services;
 import icu.nyat.kusunoki.modpackupdater.updater.Config;
+import icu.nyat.kusunoki.modpackupdater.updater.ManifestCache;
 import icu.nyat.kusunoki.modpackupdater.updater.api.ApiClient;
 import icu.nyat.kusunoki.modpackupdater.updater.dto.Manifest;
 
@@ -22,8 +23,8 @@ public final class VersionGuard {
     public static void checkNow(Path gameDir) {
         try {
             Config cfg = Config.load(gameDir);
-            ApiClient api = new ApiClient(cfg);
-            Manifest manifest = api.getManifest();
+            // Versions only; after a 304 they come from the manifest the updater saved
+            Manifest manifest = ManifestCache.fetchHeader(gameDir, cfg, new ApiClient(cfg));
             if (manifest == null) return;
 
             // Resolve expected versions from manifest
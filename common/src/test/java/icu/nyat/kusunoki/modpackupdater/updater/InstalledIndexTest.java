@@ -0,0 +1,132 @@
+package icu.nyat.kusunoki.modpackupdater.updater;
+
+import icu.nyat.kusunoki.modpackupdater.updater.dto.Manifest;
+import icu.nyat.kusunoki.modpackupdater.updater.util.PathFilter;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * {@link InstalledIndex} on disk: the binary snapshot with its fingerprint journal, a journal torn by a crash,
+ * compaction, and conversion of the legacy {@code installed.json}.
+ */
+class InstalledIndexTest {
+    @TempDir Path gameDir;
+
+    @Test
+    void snapshotAndJournalRoundTrip() throws Exception {
+        InstalledIndex idx = index(3);
+        idx.save(gameDir);
+        idx.recordFingerprint("config/f1.txt", sha(1), "0000abcd:10");
+        idx.save(gameDir);
+        assertTrue(Files.exists(InstalledIndex.journalFile(gameDir)), "a fingerprint only appends to the journal");
+
+        InstalledIndex back = InstalledIndex.load(gameDir);
+        assertEquals("test", back.packId);
+        assertEquals("1", back.version);
+        assertEquals(idx.filter, back.filter);
+        assertEquals(idx.files, back.files);
+        assertEquals(sha(2), back.getSha("config/f2.txt"));
+        assertEquals("0000abcd:10", back.getFingerprint("config/f1.txt"));
+        assertNull(back.getFingerprint("config/f2.txt"));
+        assertEquals(idx.getMerkleRoots(), back.getMerkleRoots());
+        assertTrue(back.contains("config/f0.txt"));
+        assertTrue(back.containsAnyUnder("config"));
+        assertFalse(back.containsAnyUnder("conf"));
+    }
+
+    @Test
+    void tornJournalKeepsCompleteRecords() throws Exception {
+        InstalledIndex idx = index(3);
+        idx.save(gameDir);
+        idx.recordFingerprint("config/f0.txt", sha(0), "00000000:10");
+        idx.recordFingerprint("config/f1.txt", sha(1), "11111111:10");
+        idx.save(gameDir);
+        Path journal = InstalledIndex.journalFile(gameDir);
+        try (FileChannel ch = FileChannel.open(journal, StandardOpenOption.WRITE)) {
+            ch.truncate(ch.size() - 3); // cut into the last record
+        }
+
+        InstalledIndex back = InstalledIndex.load(gameDir);
+        assertEquals("00000000:10", back.getFingerprint("config/f0.txt"));
+        assertNull(back.getFingerprint("config/f1.txt"));
+
+        back.save(gameDir);
+        assertFalse(Files.exists(journal), "a torn journal is folded into a new snapshot");
+        assertEquals("00000000:10", InstalledIndex.load(gameDir).getFingerprint("config/f0.txt"));
+    }
+
+    @Test
+    void compactsPastAQuarterOfTheSnapshot() throws Exception {
+        int n = 2000; // compaction threshold: n / 4 = 500 records
+        InstalledIndex idx = index(n);
+        idx.save(gameDir);
+        Path journal = InstalledIndex.journalFile(gameDir);
+        long snapshotSize = Files.size(InstalledIndex.file(gameDir));
+
+        for (int i = 0; i < 400; i++) idx.recordFingerprint("config/f" + i + ".txt", sha(i), "0000abcd:" + i);
+        idx.save(gameDir);
+        assertTrue(Files.exists(journal));
+        assertEquals(snapshotSize, Files.size(InstalledIndex.file(gameDir)), "the snapshot is left alone below the threshold");
+
+        for (int i = 400; i < 800; i++) idx.recordFingerprint("config/f" + i + ".txt", sha(i), "0000abcd:" + i);
+        idx.save(gameDir);
+        assertFalse(Files.exists(journal), "the journal is compacted into the snapshot");
+        assertTrue(Files.size(InstalledIndex.file(gameDir)) > snapshotSize);
+
+        InstalledIndex back = InstalledIndex.load(gameDir);
+        assertEquals("0000abcd:0", back.getFingerprint("config/f0.txt"));
+        assertEquals("0000abcd:799", back.getFingerprint("config/f799.txt"));
+        assertNull(back.getFingerprint("config/f800.txt"));
+    }
+
+    @Test
+    void migratesLegacyJson() throws Exception {
+        Path legacy = InstalledIndex.legacyFile(gameDir);
+        Files.createDirectories(legacy.getParent());
+        Files.writeString(legacy, "{\"packId\":\"test\",\"version\":\"0.9\",\"files\":[\"mods/a.jar\",\"config/b.txt\"],"
+                + "\"shas\":{\"mods/a.jar\":\"" + sha(0) + "\",\"config/b.txt\":\"" + sha(1) + "\"}}");
+
+        InstalledIndex idx = InstalledIndex.load(gameDir);
+        assertEquals("test", idx.packId);
+        assertEquals(List.of("mods/a.jar", "config/b.txt"), idx.files);
+        assertEquals(sha(1), idx.getSha("config/b.txt"));
+        assertTrue(Files.exists(InstalledIndex.file(gameDir)));
+        assertTrue(Files.exists(legacy), "installed.json is kept for older builds");
+
+        // The binary snapshot is read from now on, with the legacy copy kept current alongside it
+        idx.setFromList("test", "1.0", List.of("mods/a.jar"));
+        idx.save(gameDir);
+        assertEquals("1.0", InstalledIndex.load(gameDir).version);
+        assertTrue(Files.readString(legacy).contains("\"1.0\""));
+    }
+
+    private static InstalledIndex index(int files) {
+        List<Manifest.FileEntry> entries = new ArrayList<>();
+        for (int i = 0; i < files; i++) {
+            Manifest.FileEntry fe = new Manifest.FileEntry();
+            fe.path = "config/f" + i + ".txt";
+            fe.sha256 = sha(i);
+            fe.size = 10L;
+            entries.add(fe);
+        }
+        InstalledIndex idx = new InstalledIndex();
+        idx.setFromManifest("test", "1", entries, PathFilter.compile(new String[]{"config"}));
+        return idx;
+    }
+
+    private static String sha(int i) {
+        return String.format("%064x", i);
+    }
+}
@@ -0,0 +1,127 @@
+package icu.nyat.kusunoki.modpackupdater.updater;
+
+import com.google.gson.Gson;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import icu.nyat.kusunoki.modpackupdater.updater.util.HashEngine;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * {@link UpdateRunner} on a launch after one that left the game directory up to date, with a running watcher and the
+ * previous session's change journal: the conditional manifest request and the local scan have to overlap.
+ */
+class UpdateRunnerJournalTest {
+    private static final String CONTENT = "key=value\n";
+    private static final long MANIFEST_DELAY_MS = 400;
+
+    @TempDir Path gameDir;
+    private HttpServer server;
+    private final AtomicInteger manifestRequests = new AtomicInteger(), notModified = new AtomicInteger();
+    private volatile String etag = "\"v1\"";
+    private volatile long delayMs;
+    private String sha;
+    private Config cfg;
+
+    @BeforeEach
+    void start() throws Exception {
+        Path file = gameDir.resolve("config/a.txt");
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, CONTENT);
+        sha = HashEngine.sha256(file);
+
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/packs/test/mods", ex -> json(ex, "[]"));
+        server.createContext("/packs/test/manifest", ex -> {
+            manifestRequests.incrementAndGet();
+            String tag = etag;
+            if (tag.equals(ex.getRequestHeaders().getFirst("If-None-Match"))) {
+                notModified.incrementAndGet();
+                ex.sendResponseHeaders(304, -1);
+                ex.close();
+                return;
+            }
+            try { Thread.sleep(delayMs); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+            ex.getResponseHeaders().set("ETag", tag);
+            json(ex, "{\"packId\":\"test\",\"version\":" + tag + ",\"files\":[{\"path\":\"config/a.txt\",\"sha256\":\"" + sha + "\",\"size\":" + CONTENT.length() + "}]}");
+        });
+        server.start();
+        cfg = new Config();
+        cfg.setBaseUrl("http://127.0.0.1:" + server.getAddress().getPort());
+        cfg.setPackId("test");
+        cfg.setIncludePaths(new String[]{"config"});
+        cfg.setWatchLocalChanges(true);
+        LocalChangeWatcher.start(gameDir, cfg);
+    }
+
+    @AfterEach
+    void stop() {
+        server.stop(0);
+    }
+
+    @Test
+    void scanOverlapsChangedManifest() throws Exception {
+        assertTrue(new UpdateRunner(gameDir, cfg).execute());
+        assertTrue(ManifestCache.load(gameDir).upToDate);
+
+        writeJournal();
+        etag = "\"v2\"";
+        delayMs = MANIFEST_DELAY_MS;
+        List<String> statuses = new CopyOnWriteArrayList<>();
+        long start = System.nanoTime();
+        assertTrue(new UpdateRunner(gameDir, cfg, false, statuses::add).execute());
+        long tookMs = (System.nanoTime() - start) / 1_000_000L;
+
+        assertEquals(2, manifestRequests.get());
+        assertTrue(statuses.contains("Already up to date"), statuses.toString());
+        assertFalse(statuses.contains("Scanning local files..."), "the scan should be done by the time the manifest is in: " + statuses);
+        assertTrue(tookMs >= MANIFEST_DELAY_MS);
+        assertFalse(Files.exists(LocalChangeWatcher.journalFile(gameDir)), "the journal is consumed");
+    }
+
+    @Test
+    void unchangedManifestSkipsScan() throws Exception {
+        assertTrue(new UpdateRunner(gameDir, cfg).execute());
+
+        writeJournal();
+        List<String> statuses = new CopyOnWriteArrayList<>();
+        assertTrue(new UpdateRunner(gameDir, cfg, false, statuses::add).execute());
+
+        assertEquals(1, notModified.get());
+        assertEquals(List.of("Already up to date"), statuses);
+    }
+
+    /** What the watcher of the session after the first run would leave: nothing changed. */
+    private void writeJournal() throws IOException {
+        LocalChangeWatcher.Journal j = new LocalChangeWatcher.Journal();
+        j.generation = ManifestCache.load(gameDir).cacheGeneration;
+        j.includes = cfg.getPathFilter().signature();
+        j.dirMtimes.put("config", Files.getLastModifiedTime(gameDir.resolve("config")).toMillis());
+        Path f = LocalChangeWatcher.journalFile(gameDir);
+        Files.createDirectories(f.getParent());
+        Files.writeString(f, new Gson().toJson(j));
+    }
+
+    private static void json(HttpExchange ex, String body) throws IOException {
+        byte[] b = body.getBytes(StandardCharsets.UTF_8);
+        ex.getResponseHeaders().set("Content-Type", "application/json");
+        ex.sendResponseHeaders(200, b.length);
+        try (OutputStream out = ex.getResponseBody()) { out.write(b); }
+    }
+}
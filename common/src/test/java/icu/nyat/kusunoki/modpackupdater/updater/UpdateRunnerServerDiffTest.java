@@ -0,0 +1,101 @@
+package icu.nyat.kusunoki.modpackupdater.updater;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import icu.nyat.kusunoki.modpackupdater.updater.util.HashEngine;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The server-diff path of {@link UpdateRunner} against a stand-in server: the diff is used only when {@code /health}
+ * advertises it, and an operation the client can't place without a hash falls back to the manifest.
+ */
+class UpdateRunnerServerDiffTest {
+    private static final String CONTENT = "key=value\n";
+
+    @TempDir Path gameDir;
+    private HttpServer server;
+    private final AtomicInteger diffRequests = new AtomicInteger(), manifestRequests = new AtomicInteger();
+    private volatile String features = "[\"diff\"]";
+    private volatile String keepSha;
+    private String sha;
+    private Config cfg;
+
+    @BeforeEach
+    void start() throws Exception {
+        Path file = gameDir.resolve("config/a.txt");
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, CONTENT);
+        sha = HashEngine.sha256(file);
+        keepSha = sha;
+
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/health", ex -> json(ex, "{\"status\":\"ok\",\"features\":" + features + "}"));
+        server.createContext("/packs/test/mods", ex -> json(ex, "[]"));
+        server.createContext("/packs/test/manifest", ex -> {
+            manifestRequests.incrementAndGet();
+            json(ex, "{\"packId\":\"test\",\"version\":\"1\",\"files\":[{\"path\":\"config/a.txt\",\"sha256\":\"" + sha + "\",\"size\":" + CONTENT.length() + "}]}");
+        });
+        server.createContext("/packs/test/diff", ex -> {
+            diffRequests.incrementAndGet();
+            ex.getRequestBody().readAllBytes();
+            String s = keepSha;
+            json(ex, "{\"packId\":\"test\",\"version\":\"1\",\"operations\":[{\"path\":\"config/a.txt\",\"op\":\"Keep\""
+                    + (s != null ? ",\"sha256\":\"" + s + "\"" : "") + "}]}");
+        });
+        server.start();
+        cfg = new Config();
+        cfg.setBaseUrl("http://127.0.0.1:" + server.getAddress().getPort());
+        cfg.setPackId("test");
+        cfg.setIncludePaths(new String[]{"config"});
+        cfg.setServerDiff(true);
+    }
+
+    @AfterEach
+    void stop() {
+        server.stop(0);
+    }
+
+    @Test
+    void usesDiffWhenAdvertised() {
+        assertTrue(new UpdateRunner(gameDir, cfg, true).execute());
+        assertEquals(1, diffRequests.get());
+        assertEquals(0, manifestRequests.get(), "the diff stands in for the manifest");
+    }
+
+    @Test
+    void fetchesManifestWhenNotAdvertised() {
+        features = "[]";
+        assertTrue(new UpdateRunner(gameDir, cfg, true).execute());
+        assertEquals(0, diffRequests.get());
+        assertEquals(1, manifestRequests.get());
+    }
+
+    @Test
+    void keepWithoutHashFallsBackToManifest() {
+        keepSha = null; // and the listing has none either: the hash cache is cold, so files went up stat-only
+        assertTrue(new UpdateRunner(gameDir, cfg, true).execute());
+        assertEquals(1, diffRequests.get());
+        assertEquals(1, manifestRequests.get(), "a keep with no hash on either side can't stand in for the manifest");
+    }
+
+    private static void json(HttpExchange ex, String body) throws IOException {
+        byte[] b = body.getBytes(StandardCharsets.UTF_8);
+        ex.getResponseHeaders().set("Content-Type", "application/json");
+        ex.sendResponseHeaders(200, b.length);
+        try (OutputStream out = ex.getResponseBody()) { out.write(b); }
+    }
+}
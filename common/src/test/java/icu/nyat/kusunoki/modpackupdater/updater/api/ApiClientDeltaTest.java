@@ -0,0 +1,126 @@
+package icu.nyat.kusunoki.modpackupdater.updater.api;
+
+import com.sun.net.httpserver.HttpServer;
+import icu.nyat.kusunoki.modpackupdater.updater.Config;
+import icu.nyat.kusunoki.modpackupdater.updater.util.DeltaPatch;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** {@link ApiClient#downloadDeltaToTemp} against a stand-in server answering {@code /delta} with a fixed response. */
+class ApiClientDeltaTest {
+    private static final String SHA_A = "a".repeat(64), SHA_B = "b".repeat(64);
+
+    @TempDir Path dir;
+    private HttpServer server;
+    private final AtomicInteger deltaRequests = new AtomicInteger();
+    private volatile int status;
+    private volatile byte[] body;
+    private ApiClient api;
+
+    @BeforeEach
+    void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/packs/test/delta", ex -> {
+            deltaRequests.incrementAndGet();
+            byte[] b = body;
+            ex.sendResponseHeaders(status, b.length == 0 ? -1 : b.length);
+            try (OutputStream out = ex.getResponseBody()) { out.write(b); }
+        });
+        server.start();
+        Config cfg = new Config();
+        cfg.setBaseUrl("http://127.0.0.1:" + server.getAddress().getPort());
+        cfg.setPackId("test");
+        api = new ApiClient(cfg);
+    }
+
+    @AfterEach
+    void stop() {
+        server.stop(0);
+    }
+
+    @Test
+    void appliesPatch() throws Exception {
+        byte[] base = "the quick brown fox".getBytes(StandardCharsets.UTF_8);
+        byte[] expected = "the quick brown cat".getBytes(StandardCharsets.UTF_8);
+        respond(200, patch(16, "cat".getBytes(StandardCharsets.UTF_8), expected.length));
+        Path baseFile = Files.write(dir.resolve("base.bin"), base);
+        Path target = dir.resolve("out/target.bin");
+
+        assertTrue(api.downloadDeltaToTemp("mods/a.jar", SHA_A, SHA_B, baseFile, target));
+        assertArrayEquals(expected, Files.readAllBytes(target));
+    }
+
+    @Test
+    void notFoundWithBodyOnlyConcernsThatFile() throws Exception {
+        respond(404, "{\"error\":\"no delta for this pair\"}".getBytes(StandardCharsets.UTF_8));
+        Path baseFile = Files.write(dir.resolve("base.bin"), new byte[]{1});
+
+        assertFalse(api.downloadDeltaToTemp("mods/a.jar", SHA_A, SHA_B, baseFile, dir.resolve("t1")));
+        assertFalse(api.downloadDeltaToTemp("mods/b.jar", SHA_A, SHA_B, baseFile, dir.resolve("t2")));
+        assertEquals(2, deltaRequests.get(), "a 404 with a body must not disable deltas");
+    }
+
+    @Test
+    void bareNotFoundMeansNoEndpoint() throws Exception {
+        respond(404, new byte[0]);
+        Path baseFile = Files.write(dir.resolve("base.bin"), new byte[]{1});
+
+        assertFalse(api.downloadDeltaToTemp("mods/a.jar", SHA_A, SHA_B, baseFile, dir.resolve("t1")));
+        assertFalse(api.downloadDeltaToTemp("mods/b.jar", SHA_A, SHA_B, baseFile, dir.resolve("t2")));
+        assertEquals(1, deltaRequests.get());
+    }
+
+    @Test
+    void notImplementedMeansNoEndpoint() throws Exception {
+        respond(501, "not implemented".getBytes(StandardCharsets.UTF_8));
+        Path baseFile = Files.write(dir.resolve("base.bin"), new byte[]{1});
+
+        assertFalse(api.downloadDeltaToTemp("mods/a.jar", SHA_A, SHA_B, baseFile, dir.resolve("t1")));
+        assertFalse(api.downloadDeltaToTemp("mods/b.jar", SHA_A, SHA_B, baseFile, dir.resolve("t2")));
+        assertEquals(1, deltaRequests.get());
+    }
+
+    private void respond(int status, byte[] body) {
+        this.status = status;
+        this.body = body;
+    }
+
+    /** A patch copying the first {@code keep} bytes of the base and appending {@code tail}. */
+    private static byte[] patch(int keep, byte[] tail, int targetSize) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(DeltaPatch.MAGIC);
+        out.writeByte(DeltaPatch.FORMAT);
+        varint(out, targetSize);
+        out.writeByte(DeltaPatch.OP_COPY);
+        varint(out, 0);
+        varint(out, keep);
+        out.writeByte(DeltaPatch.OP_ADD);
+        varint(out, tail.length);
+        out.write(tail);
+        out.writeByte(DeltaPatch.OP_END);
+        return bytes.toByteArray();
+    }
+
+    private static void varint(DataOutputStream out, long v) throws IOException {
+        while ((v & ~0x7FL) != 0) { out.writeByte((int) (v & 0x7F) | 0x80); v >>>= 7; }
+        out.writeByte((int) v);
+    }
+}
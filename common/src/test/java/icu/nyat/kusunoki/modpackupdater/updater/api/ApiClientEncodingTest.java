@@ -0,0 +1,135 @@
+package icu.nyat.kusunoki.modpackupdater.updater.api;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import icu.nyat.kusunoki.modpackupdater.updater.Config;
+import icu.nyat.kusunoki.modpackupdater.updater.dto.Manifest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Manifest and mods-list responses from a stand-in server in each Content-Encoding {@link ApiClient} accepts, parsed
+ * as they arrive by {@link ManifestReader} with the include filter applied.
+ */
+class ApiClientEncodingTest {
+    private static final String MANIFEST = "{\"packId\":\"test\",\"version\":\"3\",\"files\":["
+            + "{\"path\":\"mods/a.jar\",\"sha256\":\"" + "a".repeat(64) + "\",\"size\":10},"
+            + "{\"path\":\"config/b.toml\",\"sha256\":\"" + "b".repeat(64) + "\",\"size\":20,\"extra\":{\"x\":[1,2]}},"
+            + "{\"path\":\"mods/c.jar\",\"sha256\":\"" + "c".repeat(64) + "\",\"size\":30}],"
+            + "\"mods\":[{\"path\":\"mods/a.jar\",\"id\":\"a\"},{\"path\":\"config/b.toml\"}],"
+            + "\"createdAt\":\"2026-01-02T03:04:05Z\"}";
+    private static final String MODS = "[{\"path\":\"mods/a.jar\",\"id\":\"a\",\"loader\":\"fabric\"},{\"path\":\"shaderpacks/s.zip\",\"id\":\"s\"}]";
+
+    @TempDir Path dir;
+    private HttpServer server;
+    private volatile String encoding;
+    private volatile String acceptEncoding;
+    private ApiClient api;
+
+    @BeforeEach
+    void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/packs/test/manifest", ex -> respond(ex, MANIFEST));
+        server.createContext("/packs/test/mods", ex -> respond(ex, MODS));
+        server.start();
+        Config cfg = new Config();
+        cfg.setBaseUrl("http://127.0.0.1:" + server.getAddress().getPort());
+        cfg.setPackId("test");
+        api = new ApiClient(cfg);
+    }
+
+    @AfterEach
+    void stop() {
+        server.stop(0);
+    }
+
+    @Test
+    void gzip() throws Exception {
+        encoding = "gzip";
+        assertFullManifest(api.getManifest());
+        assertEquals("gzip, deflate", acceptEncoding);
+    }
+
+    @Test
+    void zlibDeflate() throws Exception {
+        encoding = "deflate";
+        assertFullManifest(api.getManifest());
+    }
+
+    @Test
+    void rawDeflate() throws Exception {
+        encoding = "deflate-raw"; // sent as "deflate" without the zlib wrapper, as some servers do
+        assertFullManifest(api.getManifest());
+    }
+
+    @Test
+    void identity() throws Exception {
+        encoding = null;
+        assertFullManifest(api.getManifest());
+    }
+
+    @Test
+    void keepsOnlyIncludedEntries() throws Exception {
+        encoding = "gzip";
+        Path copy = dir.resolve("manifest.json");
+        Manifest m = api.getManifest(null, null, copy, p -> p.startsWith("mods/")).manifest;
+
+        assertEquals(List.of("mods/a.jar", "mods/c.jar"), m.files.stream().map(f -> f.path).toList());
+        assertEquals("c".repeat(64), m.files.get(1).sha256);
+        assertEquals(List.of("mods/a.jar"), m.mods.stream().map(e -> e.path).toList());
+        assertEquals("3", m.version);
+        assertEquals(MANIFEST, Files.readString(copy), "the saved copy is the whole decoded body");
+
+        encoding = "deflate-raw";
+        List<Manifest.ModEntry> mods = api.getMods(p -> !p.startsWith("shaderpacks/"));
+        assertEquals(1, mods.size());
+        assertEquals("fabric", mods.get(0).loader);
+    }
+
+    private static void assertFullManifest(Manifest m) {
+        assertEquals("test", m.packId);
+        assertEquals(List.of("mods/a.jar", "config/b.toml", "mods/c.jar"), m.files.stream().map(f -> f.path).toList());
+        assertEquals(20L, (long) m.files.get(1).size);
+        assertEquals(2, m.mods.size());
+        assertNull(m.mods.get(1).id);
+    }
+
+    private void respond(HttpExchange ex, String body) throws IOException {
+        acceptEncoding = ex.getRequestHeaders().getFirst("Accept-Encoding");
+        String enc = encoding;
+        byte[] b = encode(body.getBytes(StandardCharsets.UTF_8), enc);
+        ex.getResponseHeaders().set("Content-Type", "application/json");
+        if (enc != null) ex.getResponseHeaders().set("Content-Encoding", enc.equals("deflate-raw") ? "deflate" : enc);
+        ex.sendResponseHeaders(200, b.length);
+        try (OutputStream out = ex.getResponseBody()) { out.write(b); }
+    }
+
+    private static byte[] encode(byte[] body, String enc) throws IOException {
+        if (enc == null) return body;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, enc.equals("deflate-raw"));
+        try (OutputStream out = enc.equals("gzip") ? new GZIPOutputStream(bytes) : new DeflaterOutputStream(bytes, deflater)) {
+            out.write(body);
+        } finally {
+            deflater.end();
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,111 @@
+package icu.nyat.kusunoki.modpackupdater.updater.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Compares {@link HashEngine#sha256(Path)} with the {@code DigestInputStream} loop {@code FileUtils.sha256} used
+ * before it, on files of three sizes: a config, a typical mod jar, and one large enough to be memory-mapped.
+ * Both must produce the same digests. Prints the median single-thread MiB/s of each.
+ * <p>
+ * Run with {@code ./gradlew :common:benchmark -Pbench=updater.util.HashEngineBenchmark}. The files sit in the page
+ * cache after the first round, so this measures hashing and read overhead, not the disk; {@code -Dbench.dir=<dir>}
+ * places them somewhere other than the temp directory.
+ */
+public final class HashEngineBenchmark {
+    private static final long[] SIZES = {64L << 10, 4L << 20, 96L << 20};
+    private static final long BYTES_PER_ROUND = 384L << 20;
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int ROUNDS = 7;
+
+    private interface Hasher { String sha256(Path file) throws Exception; }
+
+    public static void main(String[] args) throws Exception {
+        Path base = Path.of(System.getProperty("bench.dir", System.getProperty("java.io.tmpdir")));
+        Path dir = Files.createTempDirectory(base, "hashbench");
+        try {
+            System.out.printf(Locale.ROOT, "%-10s %12s %12s %8s%n", "size", "old MiB/s", "engine MiB/s", "ratio");
+            for (long size : SIZES) {
+                List<Path> files = createFiles(dir, size, (int) Math.max(1, Math.min(64, BYTES_PER_ROUND / size)));
+                int passes = (int) Math.max(1, BYTES_PER_ROUND / (size * files.size()));
+                for (Path f : files) {
+                    if (!legacySha256(f).equals(HashEngine.sha256(f))) throw new AssertionError("digest mismatch for " + f);
+                }
+                double old = measure(files, passes, HashEngineBenchmark::legacySha256);
+                double engine = measure(files, passes, HashEngine::sha256);
+                System.out.printf(Locale.ROOT, "%-10s %12.1f %12.1f %7.2fx%n", label(size), old, engine, engine / old);
+                for (Path f : files) Files.delete(f);
+            }
+        } finally {
+            try (Stream<Path> s = Files.walk(dir)) {
+                for (Path p : s.sorted(Comparator.reverseOrder()).toList()) Files.deleteIfExists(p);
+            }
+        }
+    }
+
+    /** Median MiB/s over the measured rounds, each hashing every file {@code passes} times. */
+    private static double measure(List<Path> files, int passes, Hasher h) throws Exception {
+        double[] rates = new double[ROUNDS];
+        for (int round = -WARMUP_ROUNDS; round < ROUNDS; round++) {
+            long bytes = 0;
+            long start = System.nanoTime();
+            for (int p = 0; p < passes; p++) {
+                for (Path f : files) {
+                    if (h.sha256(f).length() != 64) throw new AssertionError();
+                    bytes += Files.size(f);
+                }
+            }
+            long nanos = System.nanoTime() - start;
+            if (round >= 0) rates[round] = (bytes / 1024.0 / 1024.0) / (nanos / 1_000_000_000.0);
+        }
+        Arrays.sort(rates);
+        return rates[ROUNDS / 2];
+    }
+
+    private static List<Path> createFiles(Path dir, long size, int count) throws IOException {
+        Random rnd = new Random(size);
+        byte[] chunk = new byte[1 << 20];
+        List<Path> files = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Path f = dir.resolve(label(size) + "-" + i + ".bin");
+            try (OutputStream out = Files.newOutputStream(f)) {
+                for (long left = size; left > 0; left -= chunk.length) {
+                    rnd.nextBytes(chunk);
+                    out.write(chunk, 0, (int) Math.min(chunk.length, left));
+                }
+            }
+            files.add(f);
+        }
+        return files;
+    }
+
+    private static String label(long size) {
+        return size >= 1 << 20 ? (size >> 20) + "MiB" : (size >> 10) + "KiB";
+    }
+
+    /** FileUtils.sha256 as it was before HashEngine. */
+    private static String legacySha256(Path file) throws IOException, NoSuchAlgorithmException {
+        MessageDigest md = MessageDigest.getInstance("SHA-256");
+        try (InputStream in = Files.newInputStream(file); DigestInputStream dis = new DigestInputStream(in, md)) {
+            byte[] buf = new byte[8192];
+            while (dis.read(buf) != -1) { /* read */ }
+        }
+        byte[] digest = md.digest();
+        StringBuilder sb = new StringBuilder();
+        for (byte b : digest) sb.append(String.format(Locale.ROOT, "%02x", b));
+        return sb.toString();
+    }
+}
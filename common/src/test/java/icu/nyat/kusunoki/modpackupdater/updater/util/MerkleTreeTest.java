@@ -0,0 +1,87 @@
+package icu.nyat.kusunoki.modpackupdater.updater.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** {@link MerkleTree} roots and diffs between two listings. */
+class MerkleTreeTest {
+    @Test
+    void diffFindsTheOneChangedLeaf() {
+        Map<String, String> a = listing(), b = listing();
+        b.put("config/sub/deep/b.toml", sha(99));
+        MerkleTree ta = MerkleTree.build(a), tb = MerkleTree.build(b);
+
+        assertEquals(Set.of("config/sub/deep/b.toml"), MerkleTree.diff(ta, tb));
+        assertEquals(ta.roots().get("mods"), tb.roots().get("mods"));
+        assertFalse(ta.roots().get("config").equals(tb.roots().get("config")));
+        assertTrue(MerkleTree.diff(ta, MerkleTree.build(listing())).isEmpty());
+    }
+
+    @Test
+    void diffListsInsertionsAndDeletions() {
+        Map<String, String> a = listing(), b = listing();
+        b.remove("mods/b.jar");
+        b.put("mods/new/c.jar", sha(50));
+        b.put("options.txt", sha(51));
+        b.remove("config/sub/deep/a.toml");
+        b.remove("config/sub/deep/b.toml"); // the whole folder goes
+
+        assertEquals(Set.of("mods/b.jar", "mods/new/c.jar", "options.txt", "config/sub/deep/a.toml", "config/sub/deep/b.toml"),
+                MerkleTree.diff(MerkleTree.build(a), MerkleTree.build(b)));
+    }
+
+    @Test
+    void unknownHashNeverMatches() {
+        Map<String, String> a = listing();
+        a.put("mods/b.jar", null);
+        MerkleTree t = MerkleTree.build(a);
+
+        assertNull(t.roots().get("mods"));
+        assertEquals(Set.of("mods/b.jar"), MerkleTree.diff(t, MerkleTree.build(a)));
+    }
+
+    @Test
+    void diffIdsSkipsRoots() {
+        PathTable paths = new PathTable(8);
+        HashArray left = new HashArray(8), right = new HashArray(8);
+        BitSet ids = new BitSet();
+        int i = 0;
+        for (var e : listing().entrySet()) {
+            int id = paths.intern(e.getKey());
+            ids.set(id);
+            left.set(id, e.getValue());
+            right.set(id, e.getKey().startsWith("mods/") ? sha(100 + i++) : e.getValue());
+        }
+        int changed = paths.id("config/sub/deep/b.toml");
+        right.set(changed, sha(99));
+        MerkleTree a = MerkleTree.build(paths, left, ids), b = MerkleTree.build(paths, right, ids);
+
+        BitSet expected = new BitSet();
+        expected.set(changed);
+        assertEquals(expected, MerkleTree.diffIds(a, b, Set.of("mods")));
+    }
+
+    private static Map<String, String> listing() {
+        Map<String, String> m = new HashMap<>();
+        m.put("mods/a.jar", sha(1));
+        m.put("mods/b.jar", sha(2));
+        m.put("config/a.toml", sha(3));
+        m.put("config/sub/deep/a.toml", sha(4));
+        m.put("config/sub/deep/b.toml", sha(5));
+        m.put("servers.dat", sha(6));
+        return m;
+    }
+
+    private static String sha(int i) {
+        return String.format("%064x", i);
+    }
+}
@@ -0,0 +1,142 @@
+package icu.nyat.kusunoki.modpackupdater.updater.util;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Times mod descriptor reading: the Gson tree parse ModMetadataUtils used before (whole {@code fabric.mod.json}
+ * parsed into a {@code JsonObject}) against {@link ModMetadataUtils#readModMetadata(Path)} as the metadata
+ * cache calls it, streaming and stopping once id, name, version and the nested jars are known. Reports microseconds
+ * per jar.
+ * <p>
+ * Run with {@code ./gradlew :common:benchmark -Pbench=updater.util.ModMetadataBenchmark}. The corpus is every jar in
+ * {@code -Dbench.mods=<mods folder>} (point it at a real instance); without it, generated Fabric jars whose
+ * descriptors carry the large entrypoint, mixin and custom blocks seen in big mods are used.
+ */
+public final class ModMetadataBenchmark {
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int ROUNDS = 15;
+    private static volatile int sink; // keeps the results observable
+
+    private interface Reader3 { String[] read(Path jar) throws IOException; }
+
+    public static void main(String[] args) throws Exception {
+        String mods = System.getProperty("bench.mods");
+        Path dir = mods != null ? Path.of(mods) : generateCorpus();
+        try {
+            List<Path> jars;
+            try (Stream<Path> s = Files.list(dir)) {
+                jars = s.filter(p -> p.getFileName().toString().endsWith(".jar")).sorted().toList();
+            }
+            int fabric = 0;
+            for (Path jar : jars) {
+                String[] tree = treeParse(jar), stream = streamed(jar);
+                if (tree == null) continue;
+                fabric++;
+                if (!Arrays.equals(tree, stream)) throw new AssertionError("metadata differs for " + jar + ": " + Arrays.toString(tree) + " vs " + Arrays.toString(stream));
+            }
+            System.out.printf(Locale.ROOT, "%d jars (%d with fabric.mod.json) from %s%n", jars.size(), fabric, dir);
+            System.out.printf(Locale.ROOT, "tree parse (fabric.mod.json only)  %8.1f us/jar%n", measure(jars, ModMetadataBenchmark::treeParse));
+            System.out.printf(Locale.ROOT, "readModMetadata, streamed          %8.1f us/jar%n", measure(jars, ModMetadataBenchmark::streamed));
+        } finally {
+            if (mods == null) {
+                try (Stream<Path> s = Files.walk(dir)) {
+                    for (Path p : s.sorted(Comparator.reverseOrder()).toList()) Files.deleteIfExists(p);
+                }
+            }
+        }
+    }
+
+    /** Median over the measured rounds of the time per jar, each round reading every jar once. */
+    private static double measure(List<Path> jars, Reader3 reader) throws IOException {
+        double[] perJar = new double[ROUNDS];
+        for (int round = -WARMUP_ROUNDS; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (Path jar : jars) {
+                String[] md = reader.read(jar);
+                if (md != null) sink += Objects.hashCode(md[0]);
+            }
+            if (round >= 0) perJar[round] = (System.nanoTime() - start) / 1000.0 / jars.size();
+        }
+        Arrays.sort(perJar);
+        return perJar[ROUNDS / 2];
+    }
+
+    private static String[] streamed(Path jar) {
+        ModMetadataUtils.ModMetadata md = ModMetadataUtils.readModMetadata(jar);
+        return md == null || md.toInfo() == null ? null : new String[]{ md.id, md.name, md.version, String.join(",", md.nestedJars) };
+    }
+
+    /** How the Fabric descriptor was read before: the whole file as a Gson tree. Null for other jars. */
+    private static String[] treeParse(Path jar) throws IOException {
+        try (ZipFile zf = new ZipFile(jar.toFile())) {
+            ZipEntry e = zf.getEntry("fabric.mod.json");
+            if (e == null) return null;
+            try (Reader r = new InputStreamReader(zf.getInputStream(e), StandardCharsets.UTF_8)) {
+                JsonElement root = JsonParser.parseReader(r);
+                if (!root.isJsonObject()) return null;
+                JsonObject o = root.getAsJsonObject();
+                List<String> jars = new ArrayList<>();
+                if (o.get("jars") instanceof JsonArray a) {
+                    for (JsonElement j : a) if (j.isJsonObject() && string(j.getAsJsonObject(), "file") != null) jars.add(string(j.getAsJsonObject(), "file"));
+                }
+                return new String[]{ string(o, "id"), string(o, "name"), string(o, "version"), String.join(",", jars) };
+            }
+        }
+    }
+
+    private static String string(JsonObject o, String key) {
+        JsonElement v = o.get(key);
+        return v != null && v.isJsonPrimitive() && !v.getAsString().isBlank() ? v.getAsString() : null;
+    }
+
+    private static Path generateCorpus() throws IOException {
+        Path dir = Files.createTempDirectory("modmetabench");
+        for (int i = 0; i < 200; i++) {
+            StringBuilder json = new StringBuilder();
+            json.append("{\"schemaVersion\":1,\"id\":\"mod").append(i).append("\",\"version\":\"1.").append(i).append(".0\",\"name\":\"Mod ").append(i).append('"');
+            json.append(",\"entrypoints\":{\"main\":[");
+            for (int k = 0; k < 20 + i % 50; k++) json.append(k > 0 ? "," : "").append("\"com.example.mod").append(i).append(".Entry").append(k).append('"');
+            json.append("]},\"mixins\":[");
+            for (int k = 0; k < 10 + i % 30; k++) json.append(k > 0 ? "," : "").append("\"mod").append(i).append(".mixins").append(k).append(".json\"");
+            json.append("],\"custom\":{\"modmenu\":{\"links\":{");
+            for (int k = 0; k < 40 + i % 100; k++) json.append(k > 0 ? "," : "").append("\"link").append(k).append("\":\"https://example.com/").append(k).append('"');
+            json.append("}}},\"depends\":{\"fabricloader\":\">=0.15\",\"minecraft\":\"~1.21\"}");
+            if (i % 2 == 0) json.append(",\"jars\":[{\"file\":\"META-INF/jars/lib").append(i).append(".jar\"}]");
+            json.append('}');
+            try (OutputStream out = Files.newOutputStream(dir.resolve("mod" + i + ".jar")); ZipOutputStream zip = new ZipOutputStream(out)) {
+                for (int k = 0; k < 30; k++) { // some class entries so the central directory has a realistic size
+                    zip.putNextEntry(new ZipEntry("com/example/mod" + i + "/C" + k + ".class"));
+                    zip.write(new byte[64]);
+                    zip.closeEntry();
+                }
+                zip.putNextEntry(new ZipEntry("fabric.mod.json"));
+                zip.write(json.toString().getBytes(StandardCharsets.UTF_8));
+                zip.closeEntry();
+            }
+        }
+        return dir;
+    }
+
+    private ModMetadataBenchmark() {}
+}
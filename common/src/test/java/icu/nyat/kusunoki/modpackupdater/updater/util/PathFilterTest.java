@@ -0,0 +1,106 @@
+package icu.nyat.kusunoki.modpackupdater.updater.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+/** {@link PathFilter} rules as tables of {includes, excludes, path, expected}. */
+class PathFilterTest {
+    private static final String[] NONE = {};
+
+    private static final Object[][] MATCHES = {
+            // plain includes (segment trie)
+            { new String[]{"mods"}, NONE, "mods/a.jar", true },
+            { new String[]{"mods"}, NONE, "mods", true },
+            { new String[]{"mods"}, NONE, "modsx/a.jar", false },
+            { new String[]{"mods"}, NONE, "mods\\a.jar", true },
+            { new String[]{"./config/foo/"}, NONE, "config/foo/a.toml", true },
+            { new String[]{"config/foo"}, NONE, "config/bar.toml", false },
+            { new String[]{"options.txt"}, NONE, "options.txt", true },
+            { new String[]{"options.txt"}, NONE, "options.txt.bak", false },
+            // globs
+            { new String[]{"resourcepacks/*.zip"}, NONE, "resourcepacks/a.zip", true },
+            { new String[]{"resourcepacks/*.zip"}, NONE, "resourcepacks/sub/a.zip", false },
+            { new String[]{"resourcepacks/*.zip"}, NONE, "resourcepacks/a.jar", false },
+            { new String[]{"config/**"}, NONE, "config/a/b/c.toml", true },
+            { new String[]{"config/**/*.toml"}, NONE, "config/c.toml", true },
+            { new String[]{"config/**/*.toml"}, NONE, "config/a/b/c.json", false },
+            { new String[]{"*.txt"}, NONE, "options.txt", true },
+            { new String[]{"*.txt"}, NONE, "config/options.txt", false },
+            { new String[]{"shader?/a"}, NONE, "shaders/a", true },
+            { new String[]{"shader?/a"}, NONE, "shader/a", false },
+            // excludes: single segments at any depth, anchored paths, directories with their contents
+            { new String[]{"mods", "!*.bak"}, NONE, "mods/a.bak", false },
+            { new String[]{"mods"}, new String[]{"*.bak"}, "mods/sub/a.bak", false },
+            { new String[]{"mods"}, new String[]{"disabled"}, "mods/disabled/a.jar", false },
+            { new String[]{"mods"}, new String[]{"disabled"}, "mods/disabled.jar", true },
+            { new String[]{"mods"}, new String[]{"mods/old"}, "mods/old/a.jar", false },
+            { new String[]{"mods"}, new String[]{"mods/old"}, "mods/older/a.jar", true },
+            { new String[]{"mods"}, new String[]{"mods/*.disabled"}, "mods/a.disabled", false },
+            { new String[]{"config"}, new String[]{"config/**/cache"}, "config/a/cache/x", false },
+            // the server's ignore list
+            { new String[]{"config"}, NONE, "config/.git/HEAD", false },
+            { new String[]{"config"}, NONE, "config/.hidden", true },
+            { new String[]{"config"}, NONE, "config/.DS_Store", false },
+            { new String[]{"config"}, NONE, "config/sub/Thumbs.db", false },
+            { new String[]{"config"}, NONE, "config/pack.json", true },
+            { new String[]{"**"}, NONE, "pack.json", false },
+            { new String[]{"**"}, NONE, "sub/pack.json", true },
+            { new String[]{"**"}, NONE, ".git/config", false },
+            { new String[]{"**"}, NONE, ".hidden", true },
+            { new String[]{"pack.json"}, NONE, "pack.json", false },
+    };
+
+    private static final Object[][] DESCENDS = {
+            { new String[]{"config/foo"}, NONE, "", true },
+            { new String[]{"config/foo"}, NONE, "config", true },
+            { new String[]{"config/foo"}, NONE, "config/foo/bar", true },
+            { new String[]{"config/foo"}, NONE, "config/other", false },
+            { new String[]{"config/foo"}, NONE, "mods", false },
+            { new String[]{"resourcepacks/*.zip"}, NONE, "resourcepacks", true },
+            { new String[]{"resourcepacks/*.zip"}, NONE, "resourcepacks/sub", false },
+            { new String[]{"config/**"}, NONE, "config/a/b", true },
+            { new String[]{"*.txt"}, NONE, "config", false },
+            { new String[]{"mods"}, new String[]{"mods/old"}, "mods/old", false },
+            { new String[]{"mods"}, new String[]{"cache"}, "mods/sub/cache", false },
+            { new String[]{"**"}, NONE, ".git", false },
+            { new String[]{"**"}, NONE, "config/.cache", false },
+            { new String[]{"**"}, NONE, "config", true },
+    };
+
+    @Test
+    void matches() {
+        for (Object[] row : MATCHES) {
+            PathFilter f = PathFilter.compile((String[]) row[0], (String[]) row[1]);
+            assertEquals(row[3], f.matches((String) row[2]), describe(row));
+        }
+    }
+
+    @Test
+    void shouldDescend() {
+        for (Object[] row : DESCENDS) {
+            PathFilter f = PathFilter.compile((String[]) row[0], (String[]) row[1]);
+            assertEquals(row[3], f.shouldDescend((String) row[2]), describe(row));
+        }
+    }
+
+    @Test
+    void rootsAreIncludesAndGlobPrefixes() {
+        PathFilter f = PathFilter.compile(new String[]{"mods", "*.txt", "config/**", "resourcepacks/*.zip", "!*.bak", "**/x"});
+        assertArrayEquals(new String[]{"mods", "", "config", "resourcepacks"}, f.roots(), "top-level globs walk from the game directory");
+    }
+
+    @Test
+    void signatureReflectsRules() {
+        assertEquals(PathFilter.compile(new String[]{"mods", "!*.bak"}).signature(),
+                PathFilter.compile(new String[]{"mods"}, new String[]{"*.bak"}).signature());
+        assertFalse(PathFilter.compile(new String[]{"mods"}).signature()
+                .equals(PathFilter.compile(new String[]{"mods", "config"}).signature()));
+    }
+
+    private static String describe(Object[] row) {
+        return String.join(",", (String[]) row[0]) + " / !" + String.join(",", (String[]) row[1]) + " : " + row[2];
+    }
+}
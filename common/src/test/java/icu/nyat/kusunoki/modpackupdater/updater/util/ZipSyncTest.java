@@ -0,0 +1,135 @@
+package icu.nyat.kusunoki.modpackupdater.updater.util;
+
+import com.sun.net.httpserver.HttpServer;
+import icu.nyat.kusunoki.modpackupdater.updater.Config;
+import icu.nyat.kusunoki.modpackupdater.updater.api.ApiClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** {@link ZipSync#sync} against a stand-in server answering ranged {@code /file} requests for one archive. */
+class ZipSyncTest {
+    private static final int ENTRIES = 20, ENTRY_SIZE = 4096;
+
+    @TempDir Path dir;
+    private HttpServer server;
+    private final List<long[]> ranges = new CopyOnWriteArrayList<>(); // {start, end exclusive}
+    private volatile byte[] remote;
+    private ApiClient api;
+
+    @BeforeEach
+    void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/packs/test/file", ex -> {
+            byte[] b = remote;
+            String range = ex.getRequestHeaders().getFirst("Range");
+            String[] se = range.substring("bytes=".length()).split("-");
+            int start = Integer.parseInt(se[0]), end = Integer.parseInt(se[1]) + 1;
+            ranges.add(new long[]{start, end});
+            ex.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + (end - 1) + "/" + b.length);
+            ex.sendResponseHeaders(206, end - start);
+            try (OutputStream out = ex.getResponseBody()) { out.write(b, start, end - start); }
+        });
+        server.start();
+        Config cfg = new Config();
+        cfg.setBaseUrl("http://127.0.0.1:" + server.getAddress().getPort());
+        cfg.setPackId("test");
+        api = new ApiClient(cfg);
+    }
+
+    @AfterEach
+    void stop() {
+        server.stop(0);
+    }
+
+    @Test
+    void rebuildsOneChangedEntryByteForByte() throws Exception {
+        Path local = Files.write(dir.resolve("local.jar"), jar(-1, null));
+        remote = jar(7, null);
+        Path target = dir.resolve("target.jar");
+
+        ZipSync.Result r = sync(local, target);
+        assertNotNull(r);
+        assertArrayEquals(remote, Files.readAllBytes(target));
+        assertTrue(r.reused > (ENTRIES - 2) * ENTRY_SIZE, "unchanged entries are copied from the local archive");
+        assertTrue(r.fetched < remote.length / 4, "fetched " + r.fetched + " of " + remote.length);
+    }
+
+    @Test
+    void readsTheEndRecordAgainPastALongComment() throws Exception {
+        String comment = "c".repeat(20_000); // pushes the end record out of the first 16 KiB tail read
+        Path local = Files.write(dir.resolve("local.jar"), jar(-1, comment));
+        remote = jar(3, comment);
+        Path target = dir.resolve("target.jar");
+
+        assertNotNull(sync(local, target));
+        assertArrayEquals(remote, Files.readAllBytes(target));
+        assertEquals(remote.length - 16 * 1024, ranges.get(0)[0]);
+        assertEquals(remote.length - (22 + 0xFFFF), ranges.get(1)[0], "second tail read covers the longest comment");
+        assertEquals(remote.length, ranges.get(1)[1]);
+    }
+
+    @Test
+    void leavesAMostlyChangedArchiveToAWholeDownload() throws Exception {
+        Path local = Files.write(dir.resolve("local.jar"), jar(-1, null));
+        remote = jar(-1, null, 1); // every entry differs
+        Path target = dir.resolve("target.jar");
+
+        assertNull(sync(local, target));
+        assertEquals(1, ranges.size(), "only the directory is read before giving up");
+    }
+
+    @Test
+    void skipsALocalFileThatIsNotAZip() throws Exception {
+        Path local = Files.write(dir.resolve("local.jar"), new byte[1024]);
+        remote = jar(-1, null);
+
+        assertNull(sync(local, dir.resolve("target.jar")));
+        assertTrue(ranges.isEmpty());
+    }
+
+    private ZipSync.Result sync(Path local, Path target) throws Exception {
+        return ZipSync.sync(local, remote.length, (from, to) -> api.openFileRange("mods/a.jar", from, to), target);
+    }
+
+    private static byte[] jar(int changed, String comment) throws IOException {
+        return jar(changed, comment, 0);
+    }
+
+    /** A deterministic jar of incompressible entries; entry {@code changed} gets different content. */
+    private static byte[] jar(int changed, String comment, long salt) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zos = new ZipOutputStream(bytes)) {
+            if (comment != null) zos.setComment(comment);
+            for (int i = 0; i < ENTRIES; i++) {
+                ZipEntry e = new ZipEntry("pkg/C" + i + ".class");
+                e.setTime(1_700_000_000_000L);
+                zos.putNextEntry(e);
+                byte[] data = new byte[ENTRY_SIZE];
+                new Random(i * 31L + salt + (i == changed ? 1_000 : 0)).nextBytes(data);
+                zos.write(data);
+                zos.closeEntry();
+            }
+        }
+        return bytes.toByteArray();
+    }
+}
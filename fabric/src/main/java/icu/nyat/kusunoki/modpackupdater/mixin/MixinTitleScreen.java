@@ -29,7 +29,7 @@ public class MixinTitleScreen {
     private void initPost(CallbackInfo info) {
         var pending = icu.nyat.kusunoki.modpackupdater.updater.UpdaterService.consumePendingPrompt();
         if (pending != null && !icu.nyat.kusunoki.modpackupdater.updater.UpdaterService.areUpdatesDisabled()) {
-            icu.nyat.kusunoki.modpackupdater.ui.UpdatePrompt.show(pending.gameDir, pending.cfg, pending.adds, pending.updates, pending.deletes);
+            icu.nyat.kusunoki.modpackupdater.ui.UpdatePrompt.show(pending.gameDir, pending.cfg, pending.plan);
         }
     }
 }